@@ -0,0 +1,33 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+/** Camera access used by {@link CameraControl} and {@link CameraWatchdog}
+ *
+ *  Allows using a fake camera for tests
+ */
+public interface CameraBackend
+{
+    public void setBrightness(int brightness);
+
+    public void setWhiteBalanceManual(int temperature);
+
+    public void setExposureAuto();
+
+    /** @param exposure Exposure 0..100 */
+    public void setExposureManual(int exposure);
+
+    /** @param name Name of a camera property, for example "contrast"
+     *  @param value Value for that property
+     */
+    public void setProperty(String name, int value);
+
+    /** @return Time of last frame in microseconds of the camera library's clock, 0 if not known */
+    public long getLastFrameTime();
+
+    /** Close and re-open the camera device */
+    public void reopen();
+}
@@ -0,0 +1,267 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/** Thread that configures the camera
+ *
+ *  Writing camera properties is slow.
+ *  When done in the vision thread, frame processing stalls.
+ *  The vision thread only requests settings via {@link #select(CameraSettings)},
+ *  and this thread writes them once the requests settle down,
+ *  only changing what's different from the last applied settings.
+ *
+ *  Optional auto-exposure: In target mode with "AutoExposure" enabled on dashboard,
+ *  exposure is adjusted to keep the brightness of the target
+ *  reported via {@link #reportBrightness(double)} within
+ *  "BrightnessMin" .. "BrightnessMax".
+ */
+public class CameraControl extends Thread
+{
+    /** Period of the control loop */
+    private static final long PERIOD_MS = 50;
+
+    /** Time that requests must be stable before they're applied */
+    private static final long DEBOUNCE_MS = 200;
+
+    /** Time between auto-exposure adjustments so camera can settle */
+    private static final long SETTLE_MS = 500;
+
+    /** Auto-exposure range */
+    private static final int EXPOSURE_MIN = 1, EXPOSURE_MAX = 20;
+
+    /** Settings requested at some time, replaced as a whole so both always match */
+    private static class Request
+    {
+        final CameraSettings settings;
+        final long ms;
+        /** Write all settings, not just the changed ones? */
+        final boolean all;
+
+        Request(final CameraSettings settings, final long ms, final boolean all)
+        {
+            this.settings = settings;
+            this.ms = ms;
+            this.all = all;
+        }
+    }
+
+    private final CameraBackend camera;
+
+    /** Pending request, <code>null</code> if none */
+    private final AtomicReference<Request> requested = new AtomicReference<>();
+
+    /** Settings last written to camera, <code>null</code> before the first write */
+    private volatile CameraSettings applied = null;
+
+    /** Target brightness reported by pipeline, when it was reported */
+    private volatile double brightness = -1;
+    private final AtomicLong brightness_ms = new AtomicLong();
+
+    /** Last auto-exposure adjustment */
+    private long adjust_ms = 0;
+
+    public CameraControl(final CameraBackend camera)
+    {
+        super("CameraControl");
+        setDaemon(true);
+        this.camera = camera;
+        SmartDashboard.setDefaultBoolean("AutoExposure", false);
+        SmartDashboard.setDefaultNumber("BrightnessMin", 120);
+        SmartDashboard.setDefaultNumber("BrightnessMax", 220);
+    }
+
+    /** Request settings, does not block
+     *  @param settings Settings to apply
+     */
+    public void select(final CameraSettings settings)
+    {
+        Request current = requested.get();
+        while (current == null  ||  current.settings != settings)
+        {
+            // Keep a pending reapply()
+            final Request request = new Request(settings, System.currentTimeMillis(),
+                                                current != null  &&  current.all);
+            if (requested.compareAndSet(current, request))
+                return;
+            current = requested.get();
+        }
+    }
+
+    /** @return Settings last written to camera, may be <code>null</code> */
+    public CameraSettings getApplied()
+    {
+        return applied;
+    }
+
+    /** Write all settings again, for example after camera was re-connected
+     *
+     *  Applies a pending request right away, otherwise the last applied settings
+     */
+    public void reapply()
+    {
+        while (true)
+        {
+            final Request current = requested.get();
+            final CameraSettings settings = current != null ? current.settings : applied;
+            if (settings == null)
+                return;
+            if (requested.compareAndSet(current, new Request(settings, 0, true)))
+                return;
+        }
+    }
+
+    /** Report target brightness, does not block
+     *  @param brightness Brightness of target pixels 0..255, negative if there is no target
+     */
+    public void reportBrightness(final double brightness)
+    {
+        this.brightness = brightness;
+        brightness_ms.set(System.currentTimeMillis());
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(PERIOD_MS);
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+            final long now = System.currentTimeMillis();
+
+            // Apply requested settings once they're stable
+            final Request request = requested.get();
+            if (request != null  &&  now - request.ms >= DEBOUNCE_MS)
+            {
+                final CameraSettings last = applied;
+                if (request.all)
+                    apply(request.settings, null);
+                // Requested the settings on which the current ones are based?
+                // Then keep auto-exposure adjustments
+                else if (last == null  ||  ! request.settings.name.equals(last.name))
+                    apply(request.settings, last);
+                requested.compareAndSet(request, null);
+            }
+
+            autoExposure(now);
+        }
+    }
+
+    /** Write settings, only those that changed
+     *  @param settings Settings to write
+     *  @param last Current settings of camera, <code>null</code> to write all
+     */
+    private void apply(final CameraSettings settings, final CameraSettings last)
+    {
+        final long start = System.currentTimeMillis();
+        System.out.println("** " + settings);
+
+        if (last == null  ||  last.brightness != settings.brightness)
+            camera.setBrightness(settings.brightness);
+        if (last == null  ||  last.contrast != settings.contrast)
+            camera.setProperty("contrast", settings.contrast);
+        if (last == null  ||  last.saturation != settings.saturation)
+            camera.setProperty("saturation", settings.saturation);
+        if (last == null  ||  last.sharpness != settings.sharpness)
+            camera.setProperty("sharpness", settings.sharpness);
+        if (last == null  ||  last.white_balance != settings.white_balance)
+            camera.setWhiteBalanceManual(settings.white_balance);
+
+        // Always write exposure-related settings as a group, in this order
+        if (last == null  ||  last.exposure != settings.exposure  ||  last.auto_priority != settings.auto_priority)
+        {
+            camera.setProperty("exposure_auto_priority", settings.auto_priority);
+            if (settings.exposure < 0)
+                camera.setExposureAuto();
+            else
+                camera.setExposureManual(settings.exposure);
+        }
+
+        if (last == null  ||  last.gain != settings.gain)
+            camera.setProperty("gain", settings.gain);
+        if (last == null  ||  last.focus_auto != settings.focus_auto)
+            camera.setProperty("focus_auto", settings.focus_auto);
+
+        applied = settings;
+        SmartDashboard.putNumber("Exposure", settings.exposure);
+        SmartDashboard.putNumber("CameraSetMS", System.currentTimeMillis() - start);
+    }
+
+    /** Adjust exposure to keep target brightness in range
+     *  @param now Current time
+     */
+    private void autoExposure(final long now)
+    {
+        final CameraSettings last = applied;
+        if (last == null  ||  last.exposure < 0  ||
+            ! SmartDashboard.getBoolean("AutoExposure", false))
+            return;
+
+        // Need recent brightness of an actual target,
+        // measured after the last adjustment took effect
+        final long reported = brightness_ms.get();
+        final double current = brightness;
+        if (current < 0  ||  now - reported > SETTLE_MS  ||  now - adjust_ms < SETTLE_MS)
+            return;
+        SmartDashboard.putNumber("TargetBrightness", current);
+
+        int exposure = last.exposure;
+        if (current > SmartDashboard.getNumber("BrightnessMax", 220))
+            exposure = Math.max(EXPOSURE_MIN, exposure - 1);
+        else if (current < SmartDashboard.getNumber("BrightnessMin", 120))
+            exposure = Math.min(EXPOSURE_MAX, exposure + 1);
+        if (exposure != last.exposure)
+        {
+            apply(last.withExposure(exposure), last);
+            adjust_ms = System.currentTimeMillis();
+        }
+    }
+
+    /** Test/demo with fake camera */
+    public static void main(String[] args) throws Exception
+    {
+        final FakeCameraBackend camera = new FakeCameraBackend(20);
+        final CameraControl control = new CameraControl(camera);
+        control.start();
+
+        System.out.println("-- Select target settings");
+        control.select(CameraSettings.TARGET);
+        Thread.sleep(500);
+
+        System.out.println("-- Toggle quickly, should only apply the last one");
+        for (int i=0; i<5; ++i)
+        {
+            control.select(CameraSettings.NORMAL);
+            Thread.sleep(10);
+            control.select(CameraSettings.TARGET);
+            Thread.sleep(10);
+        }
+        control.select(CameraSettings.NORMAL);
+        Thread.sleep(500);
+
+        System.out.println("-- Back to target settings, auto-exposure for dark target");
+        control.select(CameraSettings.TARGET);
+        Thread.sleep(500);
+        SmartDashboard.putBoolean("AutoExposure", true);
+        for (int i=0; i<30; ++i)
+        {
+            control.reportBrightness(50);
+            Thread.sleep(100);
+        }
+        System.out.println("-- Now: " + control.getApplied());
+        System.out.println("Total writes: " + camera.writes.size());
+    }
+}
@@ -0,0 +1,96 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+/** Camera settings */
+public class CameraSettings
+{
+    /** Name used in log messages */
+    public final String name;
+
+    public final int brightness, contrast, saturation, sharpness;
+
+    /** White balance temperature */
+    public final int white_balance;
+
+    /** Exposure 0..100, negative for 'auto' */
+    public final int exposure;
+
+    /** exposure_auto_priority, 1 allows camera to reduce FPS for longer exposure */
+    public final int auto_priority;
+
+    public final int gain, focus_auto;
+
+    public CameraSettings(final String name,
+                          final int brightness, final int contrast, final int saturation, final int sharpness,
+                          final int white_balance,
+                          final int exposure, final int auto_priority,
+                          final int gain, final int focus_auto)
+    {
+        this.name = name;
+        this.brightness = brightness;
+        this.contrast = contrast;
+        this.saturation = saturation;
+        this.sharpness = sharpness;
+        this.white_balance = white_balance;
+        this.exposure = exposure;
+        this.auto_priority = auto_priority;
+        this.gain = gain;
+        this.focus_auto = focus_auto;
+    }
+
+    /** "Normal" settings used to just look at stuff */
+    public static final CameraSettings NORMAL = new CameraSettings("Normal",
+        50, 50, 50, 50,
+        // Default uses 'auto' white balance.
+        // This creates overly colorful images, but better for color detection
+        6500,
+        -1, 1,
+        20, 1);
+
+    /** Settings optimized to detect a target
+     *
+     *  Reflected light from target is quite bright and appears 'white'
+     *  with default camera settings.
+     *  Select low brightness, exposure and gain to get 'green'.
+     *
+     *  Unclear how exposure_auto, auto_priority and absolute cooperate.
+     *  Selecting a long exposure can reduce the FPS,
+     *  but then selecting a manual short exposure doesn't always restore
+     *  higher FPS until the 3 settings are changed in a certain order?!
+     *  {@link CameraControl} always writes them as a group:
+     *  auto_priority, then exposure_auto and exposure_absolute.
+     *  With manual exposure, auto_priority is off so camera keeps the FPS.
+     *
+     *  Other properties on the Logitec camera that are not changed:
+     *  power_line_frequency = enum 2 of [Disabled, 50 Hz, 60 Hz]
+     *  backlight_compensation = int 0
+     *  pan_absolute = int 0
+     *  tilt_absolute = int 0
+     *  focus_absolute = int 0
+     *  zoom_absolute = int 100
+     */
+    public static final CameraSettings TARGET = new CameraSettings("Target",
+        2, 50, 50, 50,
+        6500,
+        2, 0,
+        20, 1);
+
+    /** @param exposure Exposure 0..100
+     *  @return Copy of these settings with different manual exposure
+     */
+    public CameraSettings withExposure(final int exposure)
+    {
+        return new CameraSettings(name, brightness, contrast, saturation, sharpness,
+                                  white_balance, exposure, auto_priority, gain, focus_auto);
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + " settings, exposure " + (exposure < 0 ? "auto" : Integer.toString(exposure));
+    }
+}
@@ -0,0 +1,216 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/** Thread that detects a stalled camera and re-opens it
+ *
+ *  The camera is considered stalled when
+ *  - the camera's frame time stopped advancing,
+ *  - or several frame grabs in a row failed.
+ *  How long the pipeline takes to process a frame does not matter.
+ *  The first check happens after a startup period,
+ *  giving the camera time to enumerate and deliver frames.
+ *
+ *  The camera is then re-opened, and the last applied settings
+ *  are written again via {@link CameraControl#reapply()}.
+ *  Until frames arrive, "no data" is sent so the RIO won't act on a stale target.
+ *  If re-opening keeps failing, the program exits
+ *  so the Pi's service restarts it with a fresh camera library.
+ */
+public class CameraWatchdog extends Thread
+{
+    /** Period of the check */
+    private static final long PERIOD_MS = 100;
+
+    /** Time without new frame that is considered a stall */
+    private static final long STALL_MS = 500;
+
+    /** Grab errors in a row that are considered a stall */
+    private static final int MAX_ERRORS = 3;
+
+    /** Time to wait for frames after re-opening before trying again */
+    private static final long RETRY_MS = 3000;
+
+    /** Time for the camera to start before the first check */
+    private static final long STARTUP_MS = 3000;
+
+    /** Number of re-open attempts before giving up */
+    private static final int MAX_ATTEMPTS = 5;
+
+    private final CameraBackend camera;
+    private final CameraControl control;
+    private final Runnable send_no_data;
+
+    /** Time when watchdog was created */
+    private final long start_ms = System.currentTimeMillis();
+
+    /** Grab errors since last processed frame */
+    private final AtomicInteger errors = new AtomicInteger();
+
+    /** Last frame time reported by camera and when it changed */
+    private long frame_time = 0, frame_time_ms = start_ms;
+
+    /** Time of the last good frame before a stall, or 0 when OK */
+    private long stall_ms = 0;
+
+    /** Last re-open and number of attempts */
+    private long reopen_ms = 0;
+    private int attempts = 0;
+
+    private int recoveries = 0;
+
+    /** @param camera Camera to check and re-open
+     *  @param control Control used to re-apply camera settings
+     *  @param send_no_data Called while stalled to send "no data"
+     */
+    public CameraWatchdog(final CameraBackend camera, final CameraControl control, final Runnable send_no_data)
+    {
+        super("CameraWatchdog");
+        setDaemon(true);
+        this.camera = camera;
+        this.control = control;
+        this.send_no_data = send_no_data;
+        SmartDashboard.putString("CameraStatus", "OK");
+        SmartDashboard.putNumber("CameraRecoveries", 0);
+    }
+
+    /** Call after the pipeline processed a frame, does not block */
+    public void frameProcessed()
+    {
+        errors.set(0);
+    }
+
+    /** Call when grabbing a frame failed, does not block */
+    public void grabError()
+    {
+        errors.incrementAndGet();
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(PERIOD_MS);
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+            final long now = System.currentTimeMillis();
+
+            final long time = camera.getLastFrameTime();
+            if (time != frame_time)
+            {
+                frame_time = time;
+                frame_time_ms = now;
+            }
+
+            if (stall_ms != 0)
+                recover(now);
+            else if (now - start_ms > STARTUP_MS)
+                check(now);
+        }
+    }
+
+    /** Check for stall
+     *  @param now Current time
+     */
+    private void check(final long now)
+    {
+        final String reason;
+        if (errors.get() >= MAX_ERRORS)
+            reason = errors.get() + " grab errors";
+        else if (now - frame_time_ms > STALL_MS)
+            reason = frame_time == 0 ? "no frame since start"
+                                     : "frame time frozen for " + (now - frame_time_ms) + " ms";
+        else
+            return;
+
+        System.out.println("** Camera stalled: " + reason);
+        SmartDashboard.putString("CameraStatus", "Stalled: " + reason);
+        stall_ms = frame_time_ms;
+        attempts = 0;
+        send_no_data.run();
+        reopen(now);
+    }
+
+    /** Send "no data" until frames arrive, re-open again if they don't
+     *  @param now Current time
+     */
+    private void recover(final long now)
+    {
+        // Need a new frame from the camera after it was re-opened
+        if (frame_time_ms > reopen_ms)
+        {
+            final long recover_ms = frame_time_ms - stall_ms;
+            ++recoveries;
+            System.out.println("** Camera recovered after " + recover_ms + " ms");
+            SmartDashboard.putString("CameraStatus", "OK");
+            SmartDashboard.putNumber("CameraRecoverMS", recover_ms);
+            SmartDashboard.putNumber("CameraRecoveries", recoveries);
+            stall_ms = 0;
+            errors.set(0);
+            return;
+        }
+
+        send_no_data.run();
+        if (now - reopen_ms > RETRY_MS)
+        {
+            if (attempts >= MAX_ATTEMPTS)
+            {
+                System.out.println("** Camera did not recover after " + attempts + " attempts, exiting");
+                System.exit(1);
+            }
+            reopen(now);
+        }
+    }
+
+    /** Re-open camera and have settings written again
+     *  @param now Current time
+     */
+    private void reopen(final long now)
+    {
+        ++attempts;
+        System.out.println("** Re-opening camera, attempt " + attempts);
+        reopen_ms = now;
+        errors.set(0);
+        camera.reopen();
+        control.reapply();
+    }
+
+    /** Test/demo with fake camera */
+    public static void main(String[] args) throws Exception
+    {
+        final FakeCameraBackend camera = new FakeCameraBackend(5);
+        final CameraControl control = new CameraControl(camera);
+        control.start();
+        control.select(CameraSettings.TARGET);
+        final CameraWatchdog watchdog = new CameraWatchdog(camera, control,
+                                                           () -> System.out.println("No data"));
+        watchdog.start();
+
+        // 30 frames per second after 1 second of startup, with a stall of 2 seconds
+        final long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 8000)
+        {
+            final long ms = System.currentTimeMillis() - start;
+            if ((ms > 1000  &&  ms < 4000)  ||  ms > 6000)
+            {
+                camera.frame_time = ms * 1000;
+                watchdog.frameProcessed();
+            }
+            Thread.sleep(33);
+        }
+        System.out.println("Recoveries: " + watchdog.recoveries);
+    }
+}
@@ -0,0 +1,19 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.vision.VisionPipeline;
+
+import org.opencv.core.Mat;
+
+/** Pipeline that uses the capture time of each frame */
+public interface CapturePipeline extends VisionPipeline
+{
+    /** @param frame Frame in BGR format
+     *  @param frame_time Time when cscore grabbed the frame, microseconds of WPIUtilJNI.now(), 0 if not known
+     */
+    public void process(Mat frame, long frame_time);
+}
@@ -8,21 +8,19 @@
 import edu.wpi.cscore.CvSource;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
-import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
-import org.opencv.core.Size;
+import org.opencv.core.Rect;
 import org.opencv.imgproc.Imgproc;
 
 /** Pipeline that provides info about color in center of image */
 public class ColorInfoPipeline extends PlainCopyPipeline
 {
-    // Intermediate images used for pre-processing
-    private final Mat norm = new Mat(),
-                      blur = new Mat();
-    
-    /** HSV version of current frame */
-    protected final Mat hsv = new Mat();
+    /** Pre-processed images of the current frame */
+    protected final FrameCache cache;
+
+    /** Does this pipeline own the cache, or is it shared with other pipelines? */
+    private final boolean own_cache;
 
     /** RGB at center of image */
     protected int center_b = 0, center_g = 0, center_r = 0;
@@ -30,9 +28,29 @@ public class ColorInfoPipeline extends PlainCopyPipeline
     /** HSV at center of image */
     protected int center_h = 0, center_s = 0, center_v = 0;
 
+    /** Statistics for regions of the normalized BGR and the HSV image */
+    protected final RegionStats bgr_stats = new RegionStats(0),
+                                hsv_stats = new RegionStats(0);
+
+    /** 3x3 pixels at center of image */
+    protected final RegionStats.Region bgr_center, hsv_center;
+
     ColorInfoPipeline(final CvSource output, final int width, final int height)
+    {
+        this(output, width, height, null);
+    }
+
+    /** @param cache Cache shared with other pipelines that's set to each frame before calling {@link #process(Mat)},
+     *               or <code>null</code> to use own cache
+     */
+    ColorInfoPipeline(final CvSource output, final int width, final int height, final FrameCache cache)
     {
         super(output, width, height);
+        own_cache = cache == null;
+        this.cache = own_cache ? new FrameCache(mats) : cache;
+        bgr_center = bgr_stats.add(new Rect(width/2 - 1, height/2 - 1, 3, 3), 3);
+        hsv_center = hsv_stats.add(new Rect(width/2 - 1, height/2 - 1, 3, 3), 3);
+        SmartDashboard.setDefaultNumber("Blur", 8);
     }
 
     /** Pre-process the frame
@@ -41,56 +59,37 @@ public class ColorInfoPipeline extends PlainCopyPipeline
      */
     public void prepare(final Mat frame)
     {
-        calls.incrementAndGet();
-
-        // In principle, should be possible to re-use Mat()s:
-        // 1) Resize original frame to smaller tmp1
-        // 2) Normalize tmp1 into tmp2
-        // 3) Convert RGB from tmp2 into HLS tmp1
-        // .. but that resulted in strange values for HLS,
-        // like H > 180.
-        // So re-using Mats across process calls,
-        // but within one process call always using it for the
-        // same purpose.
-
-        // Scale colors to use full 0..255 range in case image was dark
-        Core.normalize(frame, norm, 0.0, 255.0, Core.NORM_MINMAX);
-
-        // When moving the camera, or turning auto-focus off and de-focusing,
-        // we would detect the target, but when standing still and in perfect focus,
-        // we missed it?!
-        // --> Blurring the image helps detect the target!
-        Imgproc.blur(norm, blur, new Size(8, 8));
-
-        // Convert to HSV
-        Imgproc.cvtColor(blur, hsv, Imgproc.COLOR_BGR2HSV);
+        // Intermediate images are computed by the cache,
+        // or already were for another pipeline
+        if (own_cache)
+        {
+            cache.setBlur(getBlur());
+            cache.setFrame(frame);
+        }
+
+        // Probe BGR and HSV at center of image
+        bgr_stats.compute(cache.normalized());
+        hsv_stats.compute(cache.hsv());
+        updateCenter();
+        showCenter(frame);
+    }
 
-        // Probe BGR and HSV at center of image,
-        center_b = center_g = center_r = 0;
-        center_h = center_s = center_v = 0;
+    /** @return Blur kernel size from dashboard, limited to a valid size */
+    protected int getBlur()
+    {
+        return FrameCache.limitBlur((int) SmartDashboard.getNumber("Blur", 8));
+    }
 
+    /** Set center_b, .. center_v from center regions and publish them */
+    protected void updateCenter()
+    {
         // Average over 9 pixels at center x, y +-1
-        final byte[] probe = new byte[3];
-        int avg = 0;
-        for (int x=-1; x<=1; ++x)
-            for (int y=-1; y<=1; ++y)
-            {
-                norm.get(height/2 + x, width/2 + y, probe);
-                center_b += Byte.toUnsignedInt(probe[0]);
-                center_g += Byte.toUnsignedInt(probe[1]);
-                center_r += Byte.toUnsignedInt(probe[2]);
-                hsv.get(height/2 + x, width/2 + y, probe);
-                center_h += Byte.toUnsignedInt(probe[0]);
-                center_s += Byte.toUnsignedInt(probe[1]);
-                center_v += Byte.toUnsignedInt(probe[2]);
-                ++avg;
-            }
-        center_b /= avg;
-        center_g /= avg;
-        center_r /= avg;
-        center_h /= avg;
-        center_s /= avg;
-        center_v /= avg;
+        center_b = (int) bgr_center.mean[0];
+        center_g = (int) bgr_center.mean[1];
+        center_r = (int) bgr_center.mean[2];
+        center_h = (int) hsv_center.mean[0];
+        center_s = (int) hsv_center.mean[1];
+        center_v = (int) hsv_center.mean[2];
 
         SmartDashboard.putNumber("Center B", center_b);
         SmartDashboard.putNumber("Center G", center_g);
@@ -98,8 +97,11 @@ public class ColorInfoPipeline extends PlainCopyPipeline
         SmartDashboard.putNumber("Center H", center_h);
         SmartDashboard.putNumber("Center S", center_s);
         SmartDashboard.putNumber("Center V", center_v);
+    }
 
-        // Show rect in center of image where pixel info is probed
+    /** @param frame Frame where to show rect in center of image where pixel info is probed */
+    protected void showCenter(final Mat frame)
+    {
         Imgproc.rectangle(frame,
                           new Point(width/2 - 2, height/2 - 2),
                           new Point(width/2 + 2, height/2 + 2),
@@ -109,6 +111,7 @@ public class ColorInfoPipeline extends PlainCopyPipeline
     @Override
     public void process(final Mat frame)
     {
+        calls.incrementAndGet();
         prepare(frame);
 
         final String info = String.format("# %3d RGB %3d %3d %3d HSV %3d %3d %3d",
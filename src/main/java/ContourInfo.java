@@ -0,0 +1,148 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.CvType;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/** Shape info for a contour, computed when first needed
+ *
+ *  Filters can ask for any value in any order,
+ *  and each value is computed at most once per contour.
+ *
+ *  While tracking, notes which values are requested
+ *  and the time spent computing them,
+ *  so {@link FilterCascade} can charge that shared work
+ *  to every filter that needs it, not just the one that runs first.
+ */
+public class ContourInfo
+{
+    /** Values that are computed on demand */
+    static final int AREA = 0, BOUNDS = 1, PERIMETER = 2, VALUES = 3;
+
+    private MatOfPoint contour;
+    private double area, perimeter;
+    private Rect bounds;
+
+    /** Tracking enabled? */
+    private boolean tracking = false;
+
+    /** Bit mask of values requested while tracking */
+    private int used = 0;
+
+    /** Nanosecs spent computing each value while tracking */
+    final long[] nanos = new long[VALUES];
+
+    /** Temporary data for perimeter, re-used for all contours */
+    final MatOfPoint2f contour2f = new MatOfPoint2f();
+
+    /** @param contour Contour to analyze */
+    public void set(final MatOfPoint contour)
+    {
+        this.contour = contour;
+        area = perimeter = -1;
+        bounds = null;
+    }
+
+    /** Start or stop tracking requested values
+     *  @param enable Enable tracking?
+     */
+    void track(final boolean enable)
+    {
+        tracking = enable;
+        used = 0;
+        for (int i=0; i<VALUES; ++i)
+            nanos[i] = 0;
+    }
+
+    /** @param value Value to check
+     *  @return Was value requested since tracking started?
+     */
+    boolean wasUsed(final int value)
+    {
+        return (used & (1 << value)) != 0;
+    }
+
+    public MatOfPoint getContour()
+    {
+        return contour;
+    }
+
+    public double area()
+    {
+        used |= 1 << AREA;
+        if (area < 0)
+        {
+            final long start = tracking ? System.nanoTime() : 0;
+            area = Imgproc.contourArea(contour);
+            if (tracking)
+                nanos[AREA] += System.nanoTime() - start;
+        }
+        return area;
+    }
+
+    public Rect bounds()
+    {
+        used |= 1 << BOUNDS;
+        if (bounds == null)
+        {
+            final long start = tracking ? System.nanoTime() : 0;
+            bounds = Imgproc.boundingRect(contour);
+            if (tracking)
+                nanos[BOUNDS] += System.nanoTime() - start;
+        }
+        return bounds;
+    }
+
+    /** @return Aspect ratio 0 (tall) .. 1 (square) .. 20 (wide) */
+    public double aspect()
+    {
+        final Rect b = bounds();
+        return (double)b.width / b.height;
+    }
+
+    /** @return Fullness (percent): 0% (hollow) .. 100% (solid, full) */
+    public double fullness()
+    {
+        final Rect b = bounds();
+        return 100.0 * area() / (b.width * b.height);
+    }
+
+    public double perimeter()
+    {
+        used |= 1 << PERIMETER;
+        if (perimeter < 0)
+        {
+            final long start = tracking ? System.nanoTime() : 0;
+            contour.convertTo(contour2f, CvType.CV_32F);
+            perimeter = Imgproc.arcLength(contour2f, true);
+            if (tracking)
+                nanos[PERIMETER] += System.nanoTime() - start;
+        }
+        return perimeter;
+    }
+
+    /** Circularity = 4*Math.PI*area / perimeter^2
+     *
+     *  Circle:
+     *       4*pi*(pi*r*r)/(2*pi*r)^2 =
+     *       4*pi*pi*r*r/(4*pi*pi*r*r) = 1
+     *
+     *  Square:
+     *       4*pi*d*d/(4*d)^2 =
+     *       4*pi*d*d/(16*d*d) = pi/4 = 0.78
+     *
+     *  @return Circularity
+     */
+    public double circularity()
+    {
+        final double p = perimeter();
+        return 4*Math.PI*area() / (p*p);
+    }
+}
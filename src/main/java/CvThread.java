@@ -0,0 +1,62 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.vision.VisionRunner;
+
+import org.opencv.core.Mat;
+
+/** Replacement for the VisionThread that passes the frame time to the pipeline
+ *
+ *  The VisionThread drops the time returned by CvSink.grabFrame,
+ *  which is when cscore received exactly the frame that's processed.
+ */
+public class CvThread<P extends CapturePipeline> extends Thread
+{
+    private final CvSink sink = new CvSink("CvThread");
+    private final Mat frame = new Mat();
+    private final P pipeline;
+    private final VisionRunner.Listener<? super P> listener;
+    private volatile Runnable error_handler = () -> {};
+
+    /** @param camera Camera
+     *  @param pipeline Pipeline to call with each frame
+     *  @param listener Listener to call after each frame
+     */
+    public CvThread(final VideoSource camera, final P pipeline, final VisionRunner.Listener<? super P> listener)
+    {
+        super("CvThread");
+        setDaemon(true);
+        this.pipeline = pipeline;
+        this.listener = listener;
+        sink.setSource(camera);
+    }
+
+    /** @param handler Called when grabbing a frame fails */
+    public void setErrorHandler(final Runnable handler)
+    {
+        error_handler = handler;
+    }
+
+    @Override
+    public void run()
+    {
+        while (! isInterrupted())
+        {
+            final long frame_time = sink.grabFrame(frame);
+            if (frame_time == 0)
+            {
+                System.out.println("CvThread error: " + sink.getError());
+                error_handler.run();
+                continue;
+            }
+            pipeline.process(frame, frame_time);
+            listener.copyPipelineOutputs(pipeline);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** {@link CameraBackend} that just logs what would be written
+ *
+ *  Each write takes some time, like on a real camera
+ */
+public class FakeCameraBackend implements CameraBackend
+{
+    private final long delay_ms;
+
+    /** Log of all writes */
+    public final List<String> writes = new ArrayList<>();
+
+    /** Simulated time of last frame */
+    public volatile long frame_time = 0;
+
+    /** @param delay_ms Time that each property write takes */
+    public FakeCameraBackend(final long delay_ms)
+    {
+        this.delay_ms = delay_ms;
+    }
+
+    private synchronized void write(final String what)
+    {
+        try
+        {
+            Thread.sleep(delay_ms);
+        }
+        catch (InterruptedException ex)
+        {
+            // Ignore
+        }
+        writes.add(what);
+        System.out.println("Camera: " + what);
+    }
+
+    @Override
+    public void setBrightness(final int brightness)
+    {
+        write("brightness = " + brightness);
+    }
+
+    @Override
+    public void setWhiteBalanceManual(final int temperature)
+    {
+        write("white_balance = " + temperature);
+    }
+
+    @Override
+    public void setExposureAuto()
+    {
+        write("exposure = auto");
+    }
+
+    @Override
+    public void setExposureManual(final int exposure)
+    {
+        write("exposure = " + exposure);
+    }
+
+    @Override
+    public void setProperty(final String name, final int value)
+    {
+        write(name + " = " + value);
+    }
+
+    @Override
+    public long getLastFrameTime()
+    {
+        return frame_time;
+    }
+
+    @Override
+    public void reopen()
+    {
+        write("reopen");
+    }
+}
@@ -0,0 +1,194 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+/** Cascade of contour filters that orders itself
+ *
+ *  A contour is rejected as soon as one filter fails.
+ *  Best to first run filters that are cheap and reject many contours.
+ *  Which ones those are depends on the current tuning and scene,
+ *  so the cascade tracks how often each filter rejects a contour
+ *  and how long it takes, then re-orders by
+ *  cost / rejection rate, lowest first.
+ *
+ *  Values like the area are computed once per contour by {@link ContourInfo},
+ *  so whichever filter runs first would pay for them and later
+ *  filters would look cheap, locking in the current order.
+ *  The cost of a filter is thus its own time plus the average time
+ *  to compute the values that it uses, independent of the order.
+ *
+ *  Publishes "Filter Order" and for each filter
+ *  "Filter NAME reject%" and "Filter NAME ns".
+ */
+public class FilterCascade
+{
+    /** Re-order after this many contours */
+    private static final int REORDER = 256;
+
+    /** Only time every n-th test to keep the overhead low (must be power of 2) */
+    private static final int TIME_EVERY = 8;
+
+    /** Filter with statistics */
+    private static class Filter
+    {
+        final String name;
+        final Predicate<ContourInfo> test;
+        /** Contours tested and rejected, decaying */
+        double tested = 0, rejected = 0;
+        /** Timed tests and their total nanosecs without computing shared values, decaying */
+        double timed = 0, nanos = 0;
+        /** Number of timed tests that used each shared value, decaying */
+        final double[] uses = new double[ContourInfo.VALUES];
+
+        Filter(final String name, final Predicate<ContourInfo> test)
+        {
+            this.name = name;
+            this.test = test;
+        }
+
+        double rejectRate()
+        {
+            return tested > 0 ? rejected / tested : 0.0;
+        }
+
+        /** @param value_cost Average nanosecs to compute each shared value
+         *  @return Average nanosecs of this filter including the shared values it uses
+         */
+        double cost(final double[] value_cost)
+        {
+            if (timed <= 0)
+                return 0.0;
+            double cost = nanos;
+            for (int v=0; v<ContourInfo.VALUES; ++v)
+                cost += uses[v] * value_cost[v];
+            return cost / timed;
+        }
+    }
+
+    private final List<Filter> filters = new ArrayList<>();
+    private final Comparator<Filter> by_rank = Comparator.comparingDouble(this::rank);
+    private int count = 0;
+
+    /** Computations of each shared value and their total nanosecs, decaying */
+    private final double[] value_count = new double[ContourInfo.VALUES],
+                           value_nanos = new double[ContourInfo.VALUES];
+
+    /** Average nanosecs to compute each shared value, updated in reorder() */
+    private final double[] value_cost = new double[ContourInfo.VALUES];
+
+    /** Expected cost to reject a contour */
+    private double rank(final Filter filter)
+    {
+        // Filters that never reject go last
+        return filter.cost(value_cost) / Math.max(filter.rejectRate(), 1e-6);
+    }
+
+    /** @return Are there no filters? */
+    public boolean isEmpty()
+    {
+        return filters.isEmpty();
+    }
+
+    /** Add a filter
+     *
+     *  Filters may be called in any order
+     *  and should not have side effects.
+     *
+     *  @param name Name for statistics
+     *  @param test Test that returns <code>true</code> to pass the contour
+     */
+    public void add(final String name, final Predicate<ContourInfo> test)
+    {
+        filters.add(new Filter(name, test));
+    }
+
+    /** @param info Contour to check
+     *  @return <code>true</code> if all filters passed the contour
+     */
+    public boolean accept(final ContourInfo info)
+    {
+        final boolean time = (count & (TIME_EVERY-1)) == 0;
+        boolean passed = true;
+        for (Filter filter : filters)
+        {
+            if (time)
+                info.track(true);
+            final long start = time ? System.nanoTime() : 0;
+            final boolean ok = filter.test.test(info);
+            if (time)
+            {
+                long nanos = System.nanoTime() - start;
+                // Move time for shared values from filter to the values
+                for (int v=0; v<ContourInfo.VALUES; ++v)
+                {
+                    if (info.wasUsed(v))
+                        ++filter.uses[v];
+                    if (info.nanos[v] > 0)
+                    {
+                        nanos -= info.nanos[v];
+                        value_nanos[v] += info.nanos[v];
+                        ++value_count[v];
+                    }
+                }
+                filter.nanos += Math.max(0, nanos);
+                ++filter.timed;
+            }
+            ++filter.tested;
+            if (! ok)
+            {
+                ++filter.rejected;
+                passed = false;
+                break;
+            }
+        }
+
+        if (time)
+            info.track(false);
+        if (++count >= REORDER)
+            reorder();
+        return passed;
+    }
+
+    /** Sort filters by rank, publish statistics */
+    private void reorder()
+    {
+        count = 0;
+        for (int v=0; v<ContourInfo.VALUES; ++v)
+        {
+            if (value_count[v] > 0)
+                value_cost[v] = value_nanos[v] / value_count[v];
+            value_count[v] /= 2;
+            value_nanos[v] /= 2;
+        }
+        filters.sort(by_rank);
+
+        final StringBuilder order = new StringBuilder();
+        for (Filter filter : filters)
+        {
+            if (order.length() > 0)
+                order.append(", ");
+            order.append(filter.name);
+            SmartDashboard.putNumber("Filter " + filter.name + " reject%", 100.0 * filter.rejectRate());
+            SmartDashboard.putNumber("Filter " + filter.name + " ns", filter.cost(value_cost));
+
+            // Decay statistics to follow changes in tuning and scene
+            filter.tested /= 2;
+            filter.rejected /= 2;
+            filter.timed /= 2;
+            filter.nanos /= 2;
+            for (int v=0; v<ContourInfo.VALUES; ++v)
+                filter.uses[v] /= 2;
+        }
+        SmartDashboard.putString("Filter Order", order.toString());
+    }
+}
@@ -0,0 +1,96 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/** Start/stop a flight recording via dashboard
+ *
+ *  "JFR Record" starts a recording with the low-overhead "default" profile
+ *  plus the {@link FrameEvent}s.
+ *  When cleared, the recording is written to a *.jfr file
+ *  that can be opened in Java Mission Control.
+ *
+ *  Alternatively, start the program with
+ *  <code>-XX:StartFlightRecording=settings=default,filename=vision.jfr,dumponexit=true</code>
+ */
+public class FlightRecorderControl extends Thread
+{
+    private final File directory;
+    private Recording recording = null;
+
+    /** @param directory Where to write recordings
+     *  @param record Start recording right away, overriding the last dashboard setting?
+     */
+    public FlightRecorderControl(final File directory, final boolean record)
+    {
+        super("FlightRecorderControl");
+        setDaemon(true);
+        this.directory = directory;
+        if (record)
+            SmartDashboard.putBoolean("JFR Record", true);
+        else
+            SmartDashboard.setDefaultBoolean("JFR Record", false);
+        SmartDashboard.putString("JFR File", "");
+    }
+
+    @Override
+    public void run()
+    {
+        while (true)
+        {
+            try
+            {
+                Thread.sleep(1000);
+                final boolean record = SmartDashboard.getBoolean("JFR Record", false);
+                if (record  &&  recording == null)
+                    startRecording();
+                else if (! record  &&  recording != null)
+                    stopRecording();
+            }
+            catch (InterruptedException ex)
+            {
+                break;
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+                SmartDashboard.putBoolean("JFR Record", false);
+                recording = null;
+            }
+        }
+    }
+
+    private void startRecording() throws Exception
+    {
+        recording = new Recording(Configuration.getConfiguration("default"));
+        recording.setName("Vision");
+        recording.enable(FrameEvent.class);
+        recording.start();
+        System.out.println("Started flight recording");
+    }
+
+    private void stopRecording() throws Exception
+    {
+        final File file = new File(directory,
+                                   "vision-" +
+                                   LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) +
+                                   ".jfr");
+        recording.stop();
+        recording.dump(file.toPath());
+        recording.close();
+        recording = null;
+        System.out.println("Wrote flight recording " + file);
+        SmartDashboard.putString("JFR File", file.getAbsolutePath());
+    }
+}
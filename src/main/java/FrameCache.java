@@ -0,0 +1,236 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/** Pre-processed images of the current frame
+ *
+ *  Each image is computed when first requested for a frame,
+ *  so several detectors that share one cache
+ *  (see {@link MultiPipeline}) only compute them once.
+ *  Returned images must not be modified.
+ *
+ *  Images are computed from the frame passed to {@link #setFrame(Mat)},
+ *  which must not change until the next frame.
+ *  A shared cache therefore needs the detectors to draw their overlays
+ *  onto a copy, see {@link MultiPipeline}.
+ */
+public class FrameCache
+{
+    /** Mask for one set of HSV limits */
+    private static class Mask
+    {
+        final double[] limits = new double[6];
+        final Mat mask = new Mat();
+        boolean valid = false;
+    }
+
+    private final MatTracker mats;
+
+    private Mat frame;
+
+    /** Intermediate images and if they're valid for the current frame */
+    private final Mat norm = new Mat(), blur = new Mat(), hsv = new Mat(), tmp = new Mat();
+    private boolean have_norm, have_blur, have_hsv;
+
+    /** Largest supported blur kernel size */
+    public static final int MAX_BLUR = 25;
+
+    /** Blur kernel size */
+    private Size blur_size = new Size(8, 8);
+
+    /** Masks, re-used across frames */
+    private final List<Mask> masks = new ArrayList<>();
+
+    /** Counts of images that were computed or found in the cache */
+    private int computed = 0, cached = 0;
+
+    /** @param mats Tracker for the memory of the cached images */
+    public FrameCache(final MatTracker mats)
+    {
+        this.mats = mats;
+        mats.keep("prepare", norm);
+        mats.keep("prepare", blur);
+        mats.keep("prepare", hsv);
+        mats.keep("threshold", tmp);
+    }
+
+    /** @param size Requested blur kernel size, for example from the dashboard
+     *  @return Size limited to 1 (no blur) .. {@link #MAX_BLUR}
+     */
+    public static int limitBlur(final int size)
+    {
+        return Math.max(1, Math.min(size, MAX_BLUR));
+    }
+
+    /** @param size Blur kernel size for the following frames, 1 to not blur, see {@link #limitBlur(int)} */
+    public void setBlur(final int size)
+    {
+        final int limited = limitBlur(size);
+        if (limited != blur_size.width)
+            blur_size = new Size(limited, limited);
+    }
+
+    /** @param frame New frame, invalidates all cached images */
+    public void setFrame(final Mat frame)
+    {
+        this.frame = frame;
+        have_norm = have_blur = have_hsv = false;
+        for (Mask mask : masks)
+            mask.valid = false;
+    }
+
+    /** @return Original frame */
+    public Mat frame()
+    {
+        return frame;
+    }
+
+    /** @return Frame with colors scaled to use full 0..255 range */
+    public Mat normalized()
+    {
+        if (have_norm)
+            ++cached;
+        else
+        {
+            // Scale colors to use full 0..255 range in case image was dark
+            Core.normalize(frame, norm, 0.0, 255.0, Core.NORM_MINMAX);
+            have_norm = true;
+            ++computed;
+        }
+        return norm;
+    }
+
+    /** @return Blurred version of normalized frame */
+    public Mat blurred()
+    {
+        if (have_blur)
+            ++cached;
+        else
+        {
+            // When moving the camera, or turning auto-focus off and de-focusing,
+            // we would detect the target, but when standing still and in perfect focus,
+            // we missed it?!
+            // --> Blurring the image helps detect the target!
+            Imgproc.blur(normalized(), blur, blur_size);
+            have_blur = true;
+            ++computed;
+        }
+        return blur;
+    }
+
+    /** @return HSV version of blurred frame */
+    public Mat hsv()
+    {
+        if (have_hsv)
+            ++cached;
+        else
+        {
+            Imgproc.cvtColor(blurred(), hsv, Imgproc.COLOR_BGR2HSV);
+            have_hsv = true;
+            ++computed;
+        }
+        return hsv;
+    }
+
+    /** @param hsv_min Minimum hue (0-180), saturation, value
+     *  @param hsv_max Maximum hue (0-180), saturation, value. hue_max < hue_min wraps around 180.
+     *  @return Mask of pixels in HSV range
+     */
+    public Mat mask(final Scalar hsv_min, final Scalar hsv_max)
+    {
+        // Find mask for these limits, or an unused one
+        Mask unused = null;
+        for (Mask mask : masks)
+        {
+            if (mask.valid)
+            {
+                if (matches(mask.limits, hsv_min, hsv_max))
+                {
+                    ++cached;
+                    return mask.mask;
+                }
+            }
+            else if (unused == null)
+                unused = mask;
+        }
+        if (unused == null)
+        {
+            unused = new Mask();
+            mats.keep("threshold", unused.mask);
+            masks.add(unused);
+        }
+        for (int i=0; i<3; ++i)
+        {
+            unused.limits[i] = hsv_min.val[i];
+            unused.limits[3+i] = hsv_max.val[i];
+        }
+        inRange(hsv(), hsv_min, hsv_max, unused.mask);
+        unused.valid = true;
+        ++computed;
+        return unused.mask;
+    }
+
+    private static boolean matches(final double[] limits, final Scalar hsv_min, final Scalar hsv_max)
+    {
+        for (int i=0; i<3; ++i)
+            if (limits[i] != hsv_min.val[i]  ||  limits[3+i] != hsv_max.val[i])
+                return false;
+        return true;
+    }
+
+    /** Like Core.inRange, but supporting hue wrap-around */
+    private void inRange(final Mat hsv, final Scalar hsv_min, final Scalar hsv_max, final Mat mask)
+    {
+        // The OpenCV hue range is
+        // red    green     blue     red
+        // 0.......70........120.....180
+        //
+        // If we want 'green', we can use a hue min..max of say 60..80.
+        // But if we want 'red', we really need to check both 0..10 and 170..180.
+        //
+        // Support that by allowing min=170, max=10,
+        // detecting the wraparound at 180 if min > max.
+        if (hsv_min.val[0] <= hsv_max.val[0])
+        {
+            // If we want a red range of 0..10, that's fine.
+            // So is a red range of 170..180.
+            // Or 10..170 to get all colors except red.
+            Core.inRange(hsv, hsv_min, hsv_max, mask);
+        }
+        else
+        {
+            // But if we want a range of say 170..10, 'wrapping around' the 180 degree point,
+            // we need to check this in two steps
+
+            // Check 0 .. 10
+            Core.inRange(hsv, new Scalar(0.0, hsv_min.val[1], hsv_min.val[2]), hsv_max, mask);
+
+            // Check 170..180
+            Core.inRange(hsv, hsv_min, new Scalar(180.0, hsv_max.val[1], hsv_max.val[2]), tmp);
+
+            // Add the result of 0..10 and 170..180
+            Core.add(mask, tmp, mask);
+        }
+    }
+
+    /** @return Percentage of requested images that were found in the cache, resets counts */
+    public double getHitPercentage()
+    {
+        final int total = computed + cached;
+        final double percent = total > 0 ? 100.0 * cached / total : 0.0;
+        computed = cached = 0;
+        return percent;
+    }
+}
@@ -0,0 +1,83 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** Flight recorder event for each processed frame
+ *
+ *  Event duration is the complete processing time of the frame.
+ *  With the recording, GC pauses, safepoints and thread scheduling
+ *  can be correlated with slow frames in Java Mission Control.
+ *
+ *  Pipelines also read the fields for their own statistics,
+ *  so they're set even when not recording.
+ */
+@Name("frc2393.Frame")
+@Label("Vision Frame")
+@Category("FRC2393")
+@Description("Processing of one camera frame")
+@StackTrace(false)
+public class FrameEvent extends Event
+{
+    private static final EventType type = EventType.getEventType(FrameEvent.class);
+
+    /** @return Is the event enabled in a running recording? */
+    public static boolean isRecording()
+    {
+        return type.isEnabled();
+    }
+
+    @Label("Sequence")
+    public long sequence;
+
+    @Label("Skipped")
+    @Description("Scene unchanged, last result re-sent")
+    public boolean skipped;
+
+    @Label("Prepare")
+    @Timespan(Timespan.NANOSECONDS)
+    public long prepare;
+
+    @Label("Threshold")
+    @Timespan(Timespan.NANOSECONDS)
+    public long threshold;
+
+    @Label("Find Contours")
+    @Timespan(Timespan.NANOSECONDS)
+    public long contours;
+
+    @Label("Filter Contours")
+    @Timespan(Timespan.NANOSECONDS)
+    public long filter;
+
+    @Label("Send")
+    @Description("Time to send result via UDP and shared memory")
+    @Timespan(Timespan.NANOSECONDS)
+    public long send;
+
+    @Label("Contour Count")
+    public int contour_count;
+
+    @Label("Target Found")
+    public boolean found;
+
+    /** Clear all fields to re-use this event while not recording */
+    public void clear()
+    {
+        sequence = 0;
+        skipped = found = false;
+        prepare = threshold = contours = filter = send = 0;
+        contour_count = 0;
+    }
+}
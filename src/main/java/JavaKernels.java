@@ -0,0 +1,272 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/** Pure Java version of the per-pixel operations
+ *
+ *  Replaces the OpenCV calls in ColorInfoPipeline.prepare
+ *  and the HSV check of the NickelDimelightPipeline:
+ *  min/max normalize, box blur, BGR to HSV, HSV in range.
+ *
+ *  Instead of one JNI call and one intermediate image per step,
+ *  the frame is copied once into a byte[],
+ *  normalization becomes a lookup table,
+ *  and the vertical blur and HSV conversion
+ *  are fused into one pass over each row.
+ *  The range check is a separate pass, {@link #threshold(Scalar, Scalar)},
+ *  so it can be timed like the OpenCV threshold step.
+ *  Plain loops over primitive arrays so the JIT can
+ *  unroll and vectorize them.
+ *
+ *  Results match OpenCV except for rounding differences of 1.
+ */
+public class JavaKernels
+{
+    /** Fixed-point shift and division tables like OpenCV's BGR2HSV */
+    private static final int HSV_SHIFT = 12;
+    private static final int[] sdiv = new int[256], hdiv = new int[256];
+    static
+    {
+        for (int i=1; i<256; ++i)
+        {
+            sdiv[i] = (int) Math.round((255 << HSV_SHIFT) / (double) i);
+            hdiv[i] = (int) Math.round((180 << HSV_SHIFT) / (6.0 * i));
+        }
+    }
+
+    public final int width, height;
+
+    /** Blur kernel size */
+    private int blur;
+
+    /** Original BGR, normalized BGR, HSV, mask */
+    public final byte[] bgr, norm, hsv, mask;
+
+    /** Normalization lookup table */
+    private final byte[] lut = new byte[256];
+
+    /** Horizontal blur sums, 3 channels per pixel */
+    private final int[] row_sums;
+
+    /** Vertical blur sums for one row, 3 channels per pixel */
+    private final int[] col_sums;
+
+    /** @param width Image width
+     *  @param height Image height
+     *  @param blur Box blur size, 1 to not blur
+     */
+    public JavaKernels(final int width, final int height, final int blur)
+    {
+        this.width = width;
+        this.height = height;
+        setBlur(blur);
+        bgr = new byte[width * height * 3];
+        norm = new byte[width * height * 3];
+        hsv = new byte[width * height * 3];
+        mask = new byte[width * height];
+        row_sums = new int[width * height * 3];
+        col_sums = new int[width * 3];
+    }
+
+    /** @param size Box blur size for following frames, 1 to not blur */
+    public void setBlur(final int size)
+    {
+        if (size < 1  ||  size > Math.min(width, height))
+            throw new IllegalArgumentException("Invalid blur size " + size);
+        blur = size;
+    }
+
+    /** Copy frame into 'bgr', then normalize, blur and convert into 'norm' and 'hsv'
+     *  @param frame BGR frame
+     */
+    public void prepare(final Mat frame)
+    {
+        frame.get(0, 0, bgr);
+        prepare();
+    }
+
+    /** Normalize, blur and convert data in 'bgr' into 'norm' and 'hsv' */
+    public void prepare()
+    {
+        normalize();
+        blurRows();
+        blurColumnsToHSV();
+    }
+
+    /** Check 'hsv' against limits into 'mask'
+     *  @param hsv_min Minimum hue (0-180), saturation, value
+     *  @param hsv_max Maximum hue (0-180), saturation, value. hue_max < hue_min wraps around 180.
+     */
+    public void threshold(final Scalar hsv_min, final Scalar hsv_max)
+    {
+        final int h_min = (int) Math.ceil(hsv_min.val[0]), h_max = (int) Math.floor(hsv_max.val[0]);
+        final int s_min = (int) Math.ceil(hsv_min.val[1]), s_max = (int) Math.floor(hsv_max.val[1]);
+        final int v_min = (int) Math.ceil(hsv_min.val[2]), v_max = (int) Math.floor(hsv_max.val[2]);
+        final boolean wrap = hsv_min.val[0] > hsv_max.val[0];
+        for (int p=0, i=0; p<mask.length; ++p, i+=3)
+        {
+            final int h = hsv[i] & 0xFF, s = hsv[i+1] & 0xFF, v = hsv[i+2] & 0xFF;
+            final boolean hue_ok = wrap ? (h >= h_min  ||  h <= h_max)
+                                        : (h >= h_min  &&  h <= h_max);
+            mask[p] = (hue_ok  &&  s >= s_min  &&  s <= s_max  &&  v >= v_min  &&  v <= v_max)
+                    ? (byte) 255 : 0;
+        }
+    }
+
+    /** Like Core.normalize(.., 0, 255, NORM_MINMAX): Stretch min..max over all channels to 0..255 */
+    private void normalize()
+    {
+        int min = 255, max = 0;
+        for (int i=0; i<bgr.length; ++i)
+        {
+            final int value = bgr[i] & 0xFF;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        final double scale = max > min ? 255.0 / (max - min) : 0.0;
+        for (int v=0; v<256; ++v)
+            lut[v] = (byte) Math.max(0, Math.min(255, (int) Math.round((v - min) * scale)));
+        for (int i=0; i<bgr.length; ++i)
+            norm[i] = lut[bgr[i] & 0xFF];
+    }
+
+    /** @return Index with OpenCV's default BORDER_REFLECT_101 */
+    private static int reflect(final int i, final int size)
+    {
+        if (i < 0)
+            return -i;
+        if (i >= size)
+            return 2*size - 2 - i;
+        return i;
+    }
+
+    /** Horizontal running sums over 'blur' pixels, anchor at center like Imgproc.blur */
+    private void blurRows()
+    {
+        final int anchor = blur / 2;
+        for (int y=0; y<height; ++y)
+        {
+            final int row = y * width * 3;
+            int b = 0, g = 0, r = 0;
+            for (int k=-anchor; k<blur-anchor; ++k)
+            {
+                final int i = row + reflect(k, width) * 3;
+                b += norm[i] & 0xFF;
+                g += norm[i+1] & 0xFF;
+                r += norm[i+2] & 0xFF;
+            }
+            for (int x=0; x<width; ++x)
+            {
+                final int o = row + x * 3;
+                row_sums[o] = b;
+                row_sums[o+1] = g;
+                row_sums[o+2] = r;
+                // Slide window: Drop left pixel, add next pixel on the right
+                final int out = row + reflect(x - anchor, width) * 3;
+                final int in = row + reflect(x - anchor + blur, width) * 3;
+                b += (norm[in] & 0xFF) - (norm[out] & 0xFF);
+                g += (norm[in+1] & 0xFF) - (norm[out+1] & 0xFF);
+                r += (norm[in+2] & 0xFF) - (norm[out+2] & 0xFF);
+            }
+        }
+    }
+
+    /** Vertical running sums, then convert each blurred pixel to HSV */
+    private void blurColumnsToHSV()
+    {
+        final int anchor = blur / 2;
+        final int scale = (int) Math.round(65536.0 / (blur * blur));
+        final int stride = width * 3;
+
+        // Initial column sums for row 0
+        Arrays.fill(col_sums, 0);
+        for (int k=-anchor; k<blur-anchor; ++k)
+        {
+            final int row = reflect(k, height) * stride;
+            for (int i=0; i<stride; ++i)
+                col_sums[i] += row_sums[row + i];
+        }
+
+        for (int y=0; y<height; ++y)
+        {
+            final int row = y * stride;
+            for (int x=0; x<width; ++x)
+            {
+                final int i = x * 3;
+                // Rounded average, fixed point instead of division
+                final int b = (col_sums[i]   * scale + (1 << 15)) >> 16;
+                final int g = (col_sums[i+1] * scale + (1 << 15)) >> 16;
+                final int r = (col_sums[i+2] * scale + (1 << 15)) >> 16;
+
+                // BGR to HSV, fixed point like OpenCV
+                final int v = Math.max(b, Math.max(g, r));
+                final int diff = v - Math.min(b, Math.min(g, r));
+                final int s = (diff * sdiv[v] + (1 << (HSV_SHIFT-1))) >> HSV_SHIFT;
+                int h;
+                if (v == r)
+                    h = g - b;
+                else if (v == g)
+                    h = b - r + 2*diff;
+                else
+                    h = r - g + 4*diff;
+                h = (h * hdiv[diff] + (1 << (HSV_SHIFT-1))) >> HSV_SHIFT;
+                if (h < 0)
+                    h += 180;
+
+                final int o = row + i;
+                hsv[o] = (byte) h;
+                hsv[o+1] = (byte) s;
+                hsv[o+2] = (byte) v;
+            }
+
+            // Slide window down
+            final int out = reflect(y - anchor, height) * stride;
+            final int in = reflect(y - anchor + blur, height) * stride;
+            for (int i=0; i<stride; ++i)
+                col_sums[i] += row_sums[in + i] - row_sums[out + i];
+        }
+    }
+
+    /** Test/demo: Time kernels on a synthetic frame */
+    public static void main(String[] args)
+    {
+        final int width = 320, height = 240;
+        final JavaKernels kernels = new JavaKernels(width, height, 8);
+        final Random random = new Random(2393);
+        for (int i=0; i<kernels.bgr.length; i+=3)
+        {
+            // Dark noise with a green square in the middle
+            final int x = (i/3) % width, y = (i/3) / width;
+            final boolean target = Math.abs(x - width/2) < 20  &&  Math.abs(y - height/2) < 10;
+            kernels.bgr[i]   = (byte) (target ? 60  : 20 + random.nextInt(20));
+            kernels.bgr[i+1] = (byte) (target ? 200 : 20 + random.nextInt(20));
+            kernels.bgr[i+2] = (byte) (target ? 60  : 20 + random.nextInt(20));
+        }
+        final Scalar hsv_min = new Scalar(55, 30, 50), hsv_max = new Scalar(95, 255, 255);
+        for (int run=0; run<20; ++run)
+        {
+            final long start = System.nanoTime();
+            kernels.prepare();
+            final long prepared = System.nanoTime();
+            kernels.threshold(hsv_min, hsv_max);
+            final long end = System.nanoTime();
+            int count = 0;
+            for (byte m : kernels.mask)
+                if (m != 0)
+                    ++count;
+            final int c = (height/2 * width + width/2) * 3;
+            System.out.format("prepare %6.2f ms, threshold %6.2f ms, %d pixels in range, center HSV %d %d %d\n",
+                              (prepared - start) / 1e6, (end - prepared) / 1e6, count,
+                              kernels.hsv[c] & 0xFF, kernels.hsv[c+1] & 0xFF, kernels.hsv[c+2] & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+import edu.wpi.cscore.CvSource;
+import edu.wpi.cscore.VideoMode.PixelFormat;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import org.opencv.core.Mat;
+
+/** Feed synthetic scenes to a pipeline and measure the time per frame
+ *
+ *  Usage: LoadTest [color|nickel|java|multi] [width] [height] [fps, 0 for max] [frames per scene] [scene ...]
+ *
+ *  "java" runs the nickel pipeline with {@link JavaKernels}.
+ *  "multi" runs the nickel pipeline twice, with different HSV limits,
+ *  and the color pipeline on one {@link FrameCache}.
+ *  See {@link SceneGenerator#configure(String)} for scene names.
+ *
+ *  Results are not sent anywhere, see {@link VisionSender#NONE},
+ *  so the load test can run next to the vision service on the Pi.
+ */
+public class LoadTest
+{
+    public static void main(String[] args) throws Exception
+    {
+        final String type = args.length > 0 ? args[0] : "nickel";
+        final int width    = args.length > 1 ? Integer.parseInt(args[1]) : Main.width;
+        final int height   = args.length > 2 ? Integer.parseInt(args[2]) : Main.height;
+        final int fps      = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        final int frames   = args.length > 4 ? Integer.parseInt(args[4]) : 300;
+        final String[] scenes = args.length > 5
+                              ? Arrays.copyOfRange(args, 5, args.length)
+                              : new String[] { "target", "balls", "clutter", "speckle", "glare", "worst" };
+
+        CameraServerCvJNI.forceLoad();
+        final CvSource output = new CvSource("LoadTest", PixelFormat.kMJPEG, width, height, 30);
+        final PlainCopyPipeline pipeline;
+        if (type.equals("color"))
+            pipeline = new ColorInfoPipeline(output, width, height);
+        else if (type.equals("multi"))
+        {
+            final MultiPipeline multi = new MultiPipeline(output, width, height, VisionSender.NONE);
+            multi.add(new NickelDimelightPipeline(output, width, height, multi.cache, multi.sender));
+            multi.add(new NickelDimelightPipeline(output, width, height, multi.cache, VisionSender.NONE)
+            {
+                @Override
+                protected void readLimits()
+                {
+                    // Look for red instead of the green tape
+                    super.readLimits();
+                    hsv_min.val[0] = 170;
+                    hsv_max.val[0] = 10;
+                }
+            });
+            multi.add(new ColorInfoPipeline(output, width, height, multi.cache));
+            pipeline = multi;
+        }
+        else
+            pipeline = new NickelDimelightPipeline(output, width, height, VisionSender.NONE);
+        // Process every frame
+        SmartDashboard.putNumber("SceneThreshold", 0);
+        SmartDashboard.putBoolean("JavaKernels", type.equals("java"));
+
+        final SceneGenerator generator = new SceneGenerator(width, height);
+        final Mat frame = new Mat();
+        final long[] nanos = new long[frames];
+        final long budget = fps > 0 ? 1000000000L / fps : 1000000000L / Main.fps;
+
+        System.out.format("%s, %d x %d, %d frames per scene, budget %.1f ms\n",
+                          pipeline.getClass().getSimpleName(), width, height, frames, budget / 1e6);
+        System.out.println("Scene        avg-ms   p99-ms   max-ms  contours  over-budget");
+        for (String scene : scenes)
+        {
+            generator.configure(scene);
+            long contours = 0;
+            int over = 0;
+            for (int i=0; i<frames; ++i)
+            {
+                generator.render(frame);
+                final long start = System.nanoTime();
+                pipeline.process(frame);
+                nanos[i] = System.nanoTime() - start;
+                pipeline.mats.endFrame();
+                if (nanos[i] > budget)
+                    ++over;
+                if (pipeline instanceof NickelDimelightPipeline)
+                    contours += ((NickelDimelightPipeline) pipeline).frame_event.contour_count;
+                if (fps > 0  &&  nanos[i] < budget)
+                    TimeUnit.NANOSECONDS.sleep(budget - nanos[i]);
+            }
+            final long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            System.out.format("%-10s %8.2f %8.2f %8.2f %9d %12d\n",
+                              scene,
+                              Arrays.stream(sorted).average().orElse(0) / 1e6,
+                              sorted[(int) (0.99 * (frames-1))] / 1e6,
+                              sorted[frames-1] / 1e6,
+                              contours / frames,
+                              over);
+            // Each speck should be a separate contour
+            if (generator.speckles > 0  &&  pipeline instanceof NickelDimelightPipeline  &&
+                contours / frames < generator.speckles)
+                System.out.format("           Only %d contours for %d specks\n", contours / frames, generator.speckles);
+        }
+        pipeline.mats.publish();
+        MatTracker.publishProcess();
+        System.exit(0);
+    }
+}
@@ -22,7 +22,7 @@ import edu.wpi.cscore.VideoSource;
 import edu.wpi.cscore.VideoMode.PixelFormat;
 import edu.wpi.first.cameraserver.CameraServer;
 import edu.wpi.first.networktables.NetworkTableInstance;
-import edu.wpi.first.vision.VisionThread;
+import edu.wpi.first.vision.VisionRunner;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
 
 /** Vision processing code for Raspberry Pi FRCVision */
@@ -37,6 +37,9 @@ public final class Main
     // and we'll use the network tables on the roboRIO.
     public static final boolean server = false;
     public static final int width = 320, height = 240, fps = 30;
+    // Process the camera's YUYV frames directly instead of having cscore
+    // convert them to BGR, see NickelYUYVPipeline
+    public static final boolean raw_yuyv = false;
 
     /** Connect to the web port of the RIO
      *  @return Seconds spent trying
@@ -70,66 +73,6 @@ public final class Main
             System.out.println("string " + property.getString());
     }
 
-    /** Configure camera with "normal" settings used to just look at stuff */
-    public static void normalSettings(final UsbCamera camera)
-    {
-        System.out.println("** Normal settings");
-        
-        camera.setBrightness(50);    
-        camera.getProperty("contrast").set(50);
-        camera.getProperty("saturation").set(50);
-        camera.getProperty("sharpness").set(50);
-    
-        // Default uses 'auto' white balance.
-        // This creates overly colorful images, but better for color detection
-        camera.setWhiteBalanceManual(6500);
-    
-        camera.setExposureAuto();
-        camera.getProperty("gain").set(20);
-
-        camera.getProperty("focus_auto").set(1);
-    }
-
-    /** Configure camera with settings optimized to detect a target */
-    public static void targetSettings(final UsbCamera camera)
-    {
-        System.out.println("** Target settings");
-
-        // Reflected light from target is quite bright and appears 'white'
-        // with default camera settings.
-        // Select low brightness, exposure and gain to get 'green'.
-        camera.setBrightness(2);    
-        // Some camera parameters are only accessible by name via 'getProperty'.
-        camera.getProperty("contrast").set(50);
-        camera.getProperty("saturation").set(50);
-        camera.getProperty("sharpness").set(50);
-    
-        // Default uses 'auto' white balance.
-        // This creates overly colorful images, but better for color detection
-        camera.setWhiteBalanceManual(6500);
-    
-        // power_line_frequency = enum 2 of [Disabled, 50 Hz, 60 Hz]
-        // backlight_compensation = int 0
-
-        // Unclear how exposure_auto, auto_priority and absolute cooperate.
-        // Selecting a long exposure can reduce the FPS,
-        // but then selecting a manual short exposure doesn't always restore
-        // higher FPS until the 3 settings are changed in a certain order?!
-        //
-        // exposure_auto = enum 1 of [, Manual Mode, , Aperture Priority Mode]
-        // exposure_absolute = int 10
-        // exposure_auto_priority = bool 1
-        camera.setExposureManual(2);
-        camera.getProperty("gain").set(20);
-
-        // pan_absolute = int 0
-        // tilt_absolute = int 0
-        // focus_absolute = int 0
-        // focus_auto = bool 1
-        // zoom_absolute = int 100
-        camera.getProperty("focus_auto").set(1);
-    }
-
     public static void main(String... args) throws Exception
     {
         System.out.println("********************************************");
@@ -170,6 +113,10 @@ public final class Main
         // This is how the Limelight gets low latency updates via NetworkTables.    
         ntinst.setUpdateRate(1.00);
 
+        // Flight recording via dashboard, or right away with "--jfr"
+        final boolean jfr = Arrays.asList(args).contains("--jfr");
+        new FlightRecorderControl(new File(System.getProperty("user.home")), jfr).start();
+
         // Print info about all the cameras.
         // This helps to debug problems when using a new camera, or if camera's USB connection is iffy.
 
@@ -232,13 +179,28 @@ public final class Main
         final AtomicBoolean target_mode = new AtomicBoolean(true);
         SmartDashboard.setDefaultBoolean("Camera Target Mode", !target_mode.get());
 
+        // One set of transports (UDP, shared memory, mask stream) for the process
+        final VisionSender sender = new VisionSender();
+
         // TODO Select a pipeline to process the image
         // final ColorInfoPipeline my_pipeline = new ColorInfoPipeline(processed, width, height);
-        final NickelDimelightPipeline my_pipeline = new NickelDimelightPipeline(processed, width, height);
+        final NickelDimelightPipeline my_pipeline = raw_yuyv
+                                                  ? new NickelYUYVPipeline(processed, width, height, sender)
+                                                  : new NickelDimelightPipeline(processed, width, height, sender);
 
         System.out.println("** Pipeline: " + my_pipeline.getClass().getName());
 
-        final VisionThread vision_thread = new VisionThread(camera, my_pipeline, pipeline ->
+        // Camera settings are written by separate thread
+        // so they don't stall the vision thread
+        final UsbCameraBackend camera_backend = new UsbCameraBackend(camera);
+        final CameraControl camera_control = new CameraControl(camera_backend);
+        camera_control.start();
+
+        // Re-open camera when it stalls
+        final CameraWatchdog watchdog = new CameraWatchdog(camera_backend, camera_control, my_pipeline::sendNoData);
+        watchdog.start();
+
+        final VisionRunner.Listener<NickelDimelightPipeline> listener = pipeline ->
         {
             // Our pipeline just updated images (original and processed) on the dashboard.
             // Add # of calls.
@@ -247,17 +209,31 @@ public final class Main
             // Did the target mode change?
             final boolean mode = SmartDashboard.getBoolean("Camera Target Mode", target_mode.get());
             if (mode != target_mode.get())
-            {   // Remember new mode and reconfigure camera
+            {   // Remember new mode and request camera reconfiguration
                 target_mode.set(mode);
-                if (mode)
-                    targetSettings(camera);
-                else
-                    normalSettings(camera);
+                camera_control.select(mode ? CameraSettings.TARGET : CameraSettings.NORMAL);
             }
+            camera_control.reportBrightness(pipeline.target_brightness);
+            watchdog.frameProcessed();
+            pipeline.mats.endFrame();
 
             // Flush network tables so RIO can see the info ASAP
             ntinst.flush();
-        });
+        };
+        final Thread vision_thread;
+        if (raw_yuyv)
+        {
+            final YUYVThread<NickelYUYVPipeline> yuyv_thread =
+                new YUYVThread<>(camera, width, height, (NickelYUYVPipeline) my_pipeline, listener);
+            yuyv_thread.setErrorHandler(watchdog::grabError);
+            vision_thread = yuyv_thread;
+        }
+        else
+        {
+            final CvThread<NickelDimelightPipeline> cv_thread = new CvThread<>(camera, my_pipeline, listener);
+            cv_thread.setErrorHandler(watchdog::grabError);
+            vision_thread = cv_thread;
+        }
         vision_thread.start();
     
         // loop forever
@@ -280,6 +256,8 @@ public final class Main
                               " with RIO first seen after " + connect_trials);
 
             SmartDashboard.putNumber("PipelineCPS", cps);
+            my_pipeline.mats.publish();
+            MatTracker.publishProcess();
         }
     }
 }
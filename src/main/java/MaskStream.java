@@ -0,0 +1,404 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+/** Debug stream of the binary mask and contours via UDP
+ *
+ *  Much smaller than the MJPEG stream of the processed image,
+ *  and cheaper to create, so it can be used over the robot radio.
+ *  A viewer like {@link MaskViewer} subscribes by sending any packet
+ *  to the {@link #UDP_PORT} of the Pi at least every few seconds.
+ *  Up to {@link #MAX_SUBSCRIBERS} viewers are served,
+ *  others are ignored until a subscription expires.
+ *  Without subscribers, nothing is sent.
+ *  Create only one stream per process since it binds the port.
+ *
+ *  Packet:
+ *  <pre>
+ *  int    "MASK"
+ *  int    sequence
+ *  ushort width, height
+ *  ...    run lengths of 0 and non-0 pixels, alternating, starting with 0,
+ *         each as 7 bits per byte with the high bit set on all but the last byte
+ *  ushort contour count
+ *  for each contour:
+ *  ushort point count, then ushort x, y for each point
+ *  short  index of selected contour, -1 for none
+ *  </pre>
+ */
+public class MaskStream
+{
+    /** UDP port. 2022 game manual R704: 5800-5810 open for Team use */
+    public static final int UDP_PORT = 5802;
+
+    /** Marks a mask packet, "MASK" */
+    private static final int MAGIC = 0x4D41534B;
+
+    /** Maximum packet size */
+    public static final int MAX_SIZE = 65000;
+
+    /** Subscriptions expire unless renewed */
+    public static final long SUBSCRIPTION_MS = 5000;
+
+    /** Maximum number of viewers */
+    public static final int MAX_SUBSCRIBERS = 2;
+
+    /** Largest mask that a packet may describe */
+    private static final int MAX_PIXELS = 1920 * 1080;
+
+    /** Bytes before the run lengths */
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + 2 * Short.BYTES;
+
+    /** Minimum time between packets */
+    private static final long PERIOD_MS = 66;
+
+    /** Decoded packet */
+    public static class Frame
+    {
+        public final int sequence, width, height;
+
+        /** 0 or 255 for each pixel */
+        public final byte[] mask;
+
+        /** x0, y0, x1, y1, .. for each contour */
+        public final List<int[]> contours = new ArrayList<>();
+
+        /** Index of selected contour, -1 for none */
+        public int selected = -1;
+
+        Frame(final int sequence, final int width, final int height)
+        {
+            this.sequence = sequence;
+            this.width = width;
+            this.height = height;
+            mask = new byte[width * height];
+        }
+    }
+
+    private final DatagramChannel udp;
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE);
+    private final Map<SocketAddress, Long> subscribers = new ConcurrentHashMap<>();
+
+    /** Last viewer that was turned away, to log it only once */
+    private SocketAddress ignored = null;
+
+    /** Mask pixels and contour points, re-used */
+    private byte[] pixels = new byte[0];
+    private int[] points = new int[0];
+
+    private int sequence = 0;
+    private long last_ms = 0;
+
+    /** Create stream on default port */
+    public MaskStream() throws Exception
+    {
+        this(UDP_PORT);
+    }
+
+    public MaskStream(final int port) throws Exception
+    {
+        udp = DatagramChannel.open(StandardProtocolFamily.INET);
+        udp.configureBlocking(true);
+        udp.socket().setReuseAddress(true);
+        udp.bind(new InetSocketAddress(port));
+
+        final Thread thread = new Thread(this::receiveSubscriptions, "MaskStream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Remember senders of packets as subscribers, up to MAX_SUBSCRIBERS */
+    private void receiveSubscriptions()
+    {
+        final ByteBuffer packet = ByteBuffer.allocate(16);
+        try
+        {
+            while (true)
+            {
+                packet.clear();
+                final SocketAddress viewer = udp.receive(packet);
+                final long now = System.currentTimeMillis();
+                if (subscribers.containsKey(viewer))
+                    subscribers.put(viewer, now);
+                else
+                {
+                    expire(now);
+                    if (subscribers.size() >= MAX_SUBSCRIBERS)
+                    {
+                        if (! viewer.equals(ignored))
+                            System.out.println("Mask stream ignores " + viewer + ", already " + subscribers.size() + " viewers");
+                        ignored = viewer;
+                    }
+                    else
+                    {
+                        subscribers.put(viewer, now);
+                        System.out.println("Mask stream to " + viewer);
+                    }
+                }
+            }
+        }
+        catch (ClosedChannelException ex)
+        {
+            // Stream was closed
+        }
+        catch (Exception ex)
+        {
+            ex.printStackTrace();
+        }
+    }
+
+    /** @return Is it time to send, and is anybody listening? */
+    public boolean isActive()
+    {
+        final long now = System.currentTimeMillis();
+        if (now - last_ms < PERIOD_MS)
+            return false;
+        expire(now);
+        return ! subscribers.isEmpty();
+    }
+
+    /** @param now Current time, remove subscriptions that were not renewed */
+    private void expire(final long now)
+    {
+        final Iterator<Long> seen = subscribers.values().iterator();
+        while (seen.hasNext())
+            if (now - seen.next() > SUBSCRIPTION_MS)
+                seen.remove();
+    }
+
+    /** @param mask Binary mask, 8 bit, 1 channel
+     *  @param contours Contours found in mask
+     *  @param selected Index of selected contour, -1 for none
+     */
+    public void send(final Mat mask, final List<MatOfPoint> contours, final int selected)
+    {
+        last_ms = System.currentTimeMillis();
+        final int width = mask.cols(), height = mask.rows();
+        if (pixels.length != width * height)
+            pixels = new byte[width * height];
+        mask.get(0, 0, pixels);
+
+        buffer.clear();
+        try
+        {
+            buffer.putInt(MAGIC);
+            buffer.putInt(++sequence);
+            buffer.putShort((short) width);
+            buffer.putShort((short) height);
+            encodeMask(buffer, pixels);
+
+            // Add as many contours as fit, keeping room for 'selected'
+            final int count_pos = buffer.position();
+            buffer.putShort((short) 0);
+            int count = 0;
+            for (MatOfPoint contour : contours)
+            {
+                final int n = contour.rows();
+                if (buffer.remaining() < Short.BYTES * (1 + 2*n + 1)  ||  n > Short.MAX_VALUE)
+                    break;
+                if (points.length < 2*n)
+                    points = new int[2*n];
+                contour.get(0, 0, points);
+                buffer.putShort((short) n);
+                for (int i=0; i<2*n; ++i)
+                    buffer.putShort((short) points[i]);
+                ++count;
+            }
+            buffer.putShort(count_pos, (short) count);
+            buffer.putShort((short) (selected < count ? selected : -1));
+        }
+        catch (BufferOverflowException ex)
+        {
+            // Mask too noisy to fit into one packet, skip
+            return;
+        }
+
+        buffer.flip();
+        for (SocketAddress viewer : subscribers.keySet())
+        {
+            try
+            {
+                buffer.rewind();
+                udp.send(buffer, viewer);
+            }
+            catch (Exception ex)
+            {
+                subscribers.remove(viewer);
+            }
+        }
+    }
+
+    /** @param buffer Buffer to which run lengths are written
+     *  @param mask Mask pixels
+     */
+    static void encodeMask(final ByteBuffer buffer, final byte[] mask)
+    {
+        boolean on = false;
+        int run = 0;
+        for (byte pixel : mask)
+        {
+            if ((pixel != 0) == on)
+                ++run;
+            else
+            {
+                putLength(buffer, run);
+                on = ! on;
+                run = 1;
+            }
+        }
+        putLength(buffer, run);
+    }
+
+    private static void putLength(final ByteBuffer buffer, int length)
+    {
+        while (length >= 0x80)
+        {
+            buffer.put((byte) (0x80 | (length & 0x7F)));
+            length >>>= 7;
+        }
+        buffer.put((byte) length);
+    }
+
+    /** @param buffer Buffer from which to read a run length
+     *  @return Run length
+     *  @throws Exception if the run length is truncated or too long
+     */
+    private static int getLength(final ByteBuffer buffer) throws Exception
+    {
+        int length = 0, shift = 0;
+        byte b;
+        do
+        {
+            // MAX_PIXELS fits in 3 bytes of 7 bits
+            if (shift > 14)
+                throw new Exception("Run length too long");
+            if (! buffer.hasRemaining())
+                throw new Exception("Missing run length");
+            b = buffer.get();
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        }
+        while ((b & 0x80) != 0);
+        return length;
+    }
+
+    /** @param buffer Buffer from which to read
+     *  @param what Description for error message
+     *  @return Unsigned short
+     *  @throws Exception if buffer is too short
+     */
+    private static int getUnsignedShort(final ByteBuffer buffer, final String what) throws Exception
+    {
+        if (buffer.remaining() < Short.BYTES)
+            throw new Exception("Missing " + what);
+        return buffer.getShort() & 0xFFFF;
+    }
+
+    /** @param buffer Received packet
+     *  @return Decoded frame
+     *  @throws Exception if packet is not a valid mask packet
+     */
+    public static Frame decode(final ByteBuffer buffer) throws Exception
+    {
+        if (buffer.remaining() < HEADER_SIZE  ||  buffer.getInt() != MAGIC)
+            throw new Exception("Not a mask packet");
+        final int sequence = buffer.getInt();
+        final int width = buffer.getShort() & 0xFFFF, height = buffer.getShort() & 0xFFFF;
+        if (width <= 0  ||  height <= 0  ||  width * height > MAX_PIXELS)
+            throw new Exception("Invalid size " + width + " x " + height);
+        final Frame frame = new Frame(sequence, width, height);
+
+        int i = 0;
+        boolean on = false;
+        while (i < frame.mask.length)
+        {
+            final int run = getLength(buffer);
+            if (i + run > frame.mask.length)
+                throw new Exception("Invalid run length " + run);
+            if (on)
+                for (int end = i + run; i < end; ++i)
+                    frame.mask[i] = (byte) 255;
+            else
+                i += run;
+            on = ! on;
+        }
+
+        // Each contour needs at least its point count, then 'selected' follows
+        final int count = getUnsignedShort(buffer, "contour count");
+        if (buffer.remaining() < Short.BYTES * (count + 1))
+            throw new Exception("Packet too short for " + count + " contours");
+        for (int c=0; c<count; ++c)
+        {
+            final int n = getUnsignedShort(buffer, "point count");
+            if (buffer.remaining() < Short.BYTES * (2*n + 1))
+                throw new Exception("Packet too short for " + n + " points");
+            final int[] points = new int[2 * n];
+            for (int p=0; p<points.length; ++p)
+                points[p] = buffer.getShort() & 0xFFFF;
+            frame.contours.add(points);
+        }
+        frame.selected = buffer.getShort();
+        if (frame.selected < -1  ||  frame.selected >= count)
+            throw new Exception("Invalid selected contour " + frame.selected);
+        return frame;
+    }
+
+    /** Close the network connection */
+    public void close() throws Exception
+    {
+        udp.close();
+    }
+
+    /** Test/demo: Encode and decode a mask */
+    public static void main(String[] args) throws Exception
+    {
+        final int width = 320, height = 240;
+        final byte[] mask = new byte[width * height];
+        // Two blobs
+        for (int y=100; y<120; ++y)
+            for (int x=150; x<190; ++x)
+                mask[y*width + x] = (byte) 255;
+        for (int y=10; y<15; ++y)
+            for (int x=20; x<25; ++x)
+                mask[y*width + x] = (byte) 255;
+
+        final ByteBuffer buffer = ByteBuffer.allocate(MAX_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.putInt(42);
+        buffer.putShort((short) width);
+        buffer.putShort((short) height);
+        encodeMask(buffer, mask);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 4);
+        for (int v : new int[] { 150, 100, 150, 119, 189, 119, 189, 100 })
+            buffer.putShort((short) v);
+        buffer.putShort((short) 0);
+        buffer.flip();
+        System.out.println("Mask of " + mask.length + " bytes encoded in " + buffer.limit() + " bytes");
+
+        final Frame frame = decode(buffer);
+        System.out.println("Decoded frame " + frame.sequence + ", " + frame.width + " x " + frame.height +
+                           ", same mask: " + Arrays.equals(mask, frame.mask) +
+                           ", contours: " + frame.contours.size() + ", selected: " + frame.selected);
+    }
+}
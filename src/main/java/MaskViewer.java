@@ -0,0 +1,160 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/** Viewer for the {@link MaskStream}
+ *
+ *  Usage: MaskViewer [host of Pi] [scale]
+ *
+ *  Runs on the driver station or any laptop on the robot network,
+ *  does not need OpenCV.
+ */
+public class MaskViewer extends JPanel
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int scale;
+    private volatile BufferedImage image = null;
+    private volatile MaskStream.Frame frame = null;
+
+    public MaskViewer(final int scale)
+    {
+        this.scale = scale;
+        setPreferredSize(new Dimension(320 * scale, 240 * scale));
+        setBackground(Color.DARK_GRAY);
+    }
+
+    /** @param frame Frame to show, called on any thread */
+    public void show(final MaskStream.Frame frame)
+    {
+        final BufferedImage image = new BufferedImage(frame.width, frame.height, BufferedImage.TYPE_BYTE_GRAY);
+        final byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(frame.mask, 0, data, 0, frame.mask.length);
+        this.frame = frame;
+        this.image = image;
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(final Graphics g)
+    {
+        super.paintComponent(g);
+        final BufferedImage image = this.image;
+        final MaskStream.Frame frame = this.frame;
+        if (image == null)
+            return;
+        final Graphics2D g2 = (Graphics2D) g;
+        g2.drawImage(image, 0, 0, image.getWidth() * scale, image.getHeight() * scale, null);
+
+        for (int c=0; c<frame.contours.size(); ++c)
+        {
+            final int[] points = frame.contours.get(c);
+            final int n = points.length / 2;
+            final int[] x = new int[n], y = new int[n];
+            for (int i=0; i<n; ++i)
+            {
+                x[i] = points[2*i] * scale;
+                y[i] = points[2*i+1] * scale;
+            }
+            g2.setColor(c == frame.selected ? Color.RED : Color.CYAN);
+            g2.drawPolygon(x, y, n);
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        final String host = args.length > 0 ? args[0] : "wpilibpi.local";
+        final int scale = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final InetSocketAddress pi = new InetSocketAddress(host, MaskStream.UDP_PORT);
+
+        final MaskViewer viewer = new MaskViewer(scale);
+        final JFrame window = new JFrame("Mask from " + pi);
+        SwingUtilities.invokeAndWait(() ->
+        {
+            window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            window.getContentPane().add(viewer);
+            window.pack();
+            window.setVisible(true);
+        });
+
+        final DatagramChannel udp = DatagramChannel.open(StandardProtocolFamily.INET);
+        udp.configureBlocking(true);
+        udp.bind(null);
+
+        // Subscribe, and keep renewing the subscription
+        final ByteBuffer subscribe = ByteBuffer.allocate(1);
+        final Thread renew = new Thread(() ->
+        {
+            while (true)
+            {
+                try
+                {
+                    subscribe.clear();
+                    udp.send(subscribe, pi);
+                    Thread.sleep(MaskStream.SUBSCRIPTION_MS / 5);
+                }
+                catch (Exception ex)
+                {
+                    ex.printStackTrace();
+                    return;
+                }
+            }
+        }, "Subscribe");
+        renew.setDaemon(true);
+        renew.start();
+
+        final ByteBuffer buffer = ByteBuffer.allocate(MaskStream.MAX_SIZE);
+        long start = System.currentTimeMillis();
+        int frames = 0;
+        long bytes = 0;
+        while (true)
+        {
+            buffer.clear();
+            udp.receive(buffer);
+            buffer.flip();
+            bytes += buffer.limit();
+            // decode checks sizes and counts against the packet length
+            final MaskStream.Frame frame;
+            try
+            {
+                frame = MaskStream.decode(buffer);
+            }
+            catch (Exception ex)
+            {
+                System.out.println("Bad packet: " + ex.getMessage());
+                continue;
+            }
+            viewer.show(frame);
+
+            ++frames;
+            final long now = System.currentTimeMillis();
+            if (now - start >= 1000)
+            {
+                final String info = String.format("Mask from %s: %.1f frames/sec, %d bytes/frame",
+                                                  pi, frames * 1000.0 / (now - start), bytes / frames);
+                SwingUtilities.invokeLater(() -> window.setTitle(info));
+                start = now;
+                frames = 0;
+                bytes = 0;
+            }
+        }
+    }
+}
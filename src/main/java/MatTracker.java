@@ -0,0 +1,257 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import org.opencv.core.Mat;
+
+/** Track OpenCV Mats and their native memory
+ *
+ *  The image data of a Mat is in native memory.
+ *  The JVM only sees the small Mat object,
+ *  so it has no reason to run the garbage collector
+ *  while native memory keeps growing.
+ *  Mats created for each frame must thus be release()d.
+ *
+ *  Pipelines register
+ *  - long-lived Mats via {@link #keep(String, Mat)} for accounting,
+ *  - per-frame Mats via {@link #frame(String, Mat)}.
+ *  At the end of each frame, any per-frame Mat that still holds
+ *  data is counted as a leak.
+ *
+ *  Mats that nobody registered, for example those created
+ *  inside a helper or a library, can't be seen that way.
+ *  To catch those unknown leaks, {@link #publishProcess()} follows
+ *  the native memory of the process, i.e. the resident set size
+ *  minus the memory committed by the JVM for heap, metaspace and JIT code,
+ *  and minus the registered Mats of all trackers.
+ *  When that keeps growing, something leaks native memory.
+ */
+public class MatTracker
+{
+    /** Statistics for a 'stage' of a pipeline */
+    private static class Stage
+    {
+        final List<Mat> kept = new ArrayList<>();
+        int frame_mats = 0, leaks = 0;
+        long leaked_bytes = 0;
+    }
+
+    /** All trackers of the process */
+    private static final List<MatTracker> trackers = new ArrayList<>();
+
+    private final String name;
+    private final Map<String, Stage> stages = new TreeMap<>();
+
+    /** Per-frame Mats of the current frame and their stage */
+    private final List<Mat> frame_mats = new ArrayList<>();
+    private final List<Stage> frame_stages = new ArrayList<>();
+
+    /** Growth of untracked native memory per publishProcess() that is considered a leak */
+    private static final long GROWTH_KB = 1024;
+
+    /** Number of publishProcess() calls with growth before warning */
+    private static final int GROWTH_PERIODS = 3;
+
+    /** Untracked native kB at last publishProcess(), -1 if not known */
+    private static long last_native_kb = -1;
+
+    /** Number of publishProcess() calls in a row where untracked native memory grew */
+    private static int growing = 0;
+
+    /** Untracked native kB growth while 'growing' */
+    private static long growth_kb = 0;
+
+    /** @param name Name of pipeline */
+    public MatTracker(final String name)
+    {
+        this.name = name;
+        synchronized (trackers)
+        {
+            trackers.add(this);
+        }
+    }
+
+    private Stage getStage(final String stage)
+    {
+        return stages.computeIfAbsent(stage, s -> new Stage());
+    }
+
+    /** @param stage Stage that uses the Mat
+     *  @param mat Long-lived Mat, for example a field of the pipeline
+     *  @return The Mat
+     */
+    public synchronized <M extends Mat> M keep(final String stage, final M mat)
+    {
+        getStage(stage).kept.add(mat);
+        return mat;
+    }
+
+    /** @param stage Stage that created the Mat
+     *  @param mat Mat that must be released before the end of the frame
+     *  @return The Mat
+     */
+    public synchronized <M extends Mat> M frame(final String stage, final M mat)
+    {
+        final Stage info = getStage(stage);
+        ++info.frame_mats;
+        frame_mats.add(mat);
+        frame_stages.add(info);
+        return mat;
+    }
+
+    /** @param stage Stage that created the Mats
+     *  @param mats Mats that must be released before the end of the frame
+     */
+    public synchronized void frame(final String stage, final List<? extends Mat> mats)
+    {
+        for (Mat mat : mats)
+            frame(stage, mat);
+    }
+
+    /** Check for per-frame Mats that were not released */
+    public synchronized void endFrame()
+    {
+        for (int i=frame_mats.size()-1; i>=0; --i)
+        {
+            final Mat mat = frame_mats.get(i);
+            if (mat.dataAddr() != 0)
+            {
+                final Stage info = frame_stages.get(i);
+                ++info.leaks;
+                info.leaked_bytes += bytes(mat);
+            }
+        }
+        frame_mats.clear();
+        frame_stages.clear();
+    }
+
+    /** @return Native bytes used by a Mat */
+    private static long bytes(final Mat mat)
+    {
+        return mat.dataAddr() == 0 ? 0 : mat.total() * mat.elemSize();
+    }
+
+    /** @return Kilobytes of a "VmRSS:   1234 kB" type entry in /proc/self/status, or -1 */
+    private static long procStatus(final String entry)
+    {
+        try
+        {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status")))
+                if (line.startsWith(entry))
+                    return Long.parseLong(line.substring(entry.length()).replace("kB", "").trim());
+        }
+        catch (Exception ex)
+        {
+            // Not on Linux
+        }
+        return -1;
+    }
+
+    /** @return Native bytes of all long-lived Mats */
+    private synchronized long keptBytes()
+    {
+        long bytes = 0;
+        for (Stage info : stages.values())
+            for (Mat mat : info.kept)
+                bytes += bytes(mat);
+        return bytes;
+    }
+
+    /** Publish statistics and reset leak counts
+     *
+     *  Mat count and native kB for each stage of the pipeline.
+     *  See {@link #publishProcess()} for the memory of the whole process.
+     */
+    public synchronized void publish()
+    {
+        int total_mats = 0, total_leaks = 0;
+        long total_bytes = 0;
+        for (Map.Entry<String, Stage> entry : stages.entrySet())
+        {
+            final Stage info = entry.getValue();
+            long bytes = 0;
+            for (Mat mat : info.kept)
+                bytes += bytes(mat);
+            final String key = "Mat " + name + "." + entry.getKey();
+            SmartDashboard.putNumber(key + " count", info.kept.size());
+            SmartDashboard.putNumber(key + " kB", bytes / 1024.0);
+            SmartDashboard.putNumber(key + " leaks", info.leaks);
+            if (info.leaks > 0)
+                System.out.println("Mat leak in " + name + "." + entry.getKey() + ": " +
+                                   info.leaks + " of " + info.frame_mats + " per-frame Mats not released, " +
+                                   info.leaked_bytes / 1024 + " kB");
+            total_mats += info.kept.size();
+            total_bytes += bytes;
+            total_leaks += info.leaks;
+            info.leaks = info.frame_mats = 0;
+            info.leaked_bytes = 0;
+        }
+        SmartDashboard.putNumber("Mat " + name + " count", total_mats);
+        SmartDashboard.putNumber("Mat " + name + " kB", total_bytes / 1024.0);
+        SmartDashboard.putNumber("Mat " + name + " leaks", total_leaks);
+    }
+
+    /** Publish memory of the process and check for native memory growth
+     *
+     *  Call once per period for the whole process, not for each tracker,
+     *  since it compares the memory of the process with the Mats of all trackers.
+     */
+    public static synchronized void publishProcess()
+    {
+        long mat_bytes = 0;
+        synchronized (trackers)
+        {
+            for (MatTracker tracker : trackers)
+                mat_bytes += tracker.keptBytes();
+        }
+
+        final Runtime runtime = Runtime.getRuntime();
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        final long jvm_bytes = memory.getHeapMemoryUsage().getCommitted() +
+                               memory.getNonHeapMemoryUsage().getCommitted();
+        final long rss_kb = procStatus("VmRSS:");
+        SmartDashboard.putNumber("Heap kB", (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+        SmartDashboard.putNumber("RSS kB", rss_kb);
+        if (rss_kb >= 0)
+            checkNativeGrowth(rss_kb - jvm_bytes / 1024 - mat_bytes / 1024);
+    }
+
+    /** Warn when native memory grows without registered Mats growing
+     *  @param native_kb Resident kB minus committed JVM memory minus registered Mats
+     */
+    private static void checkNativeGrowth(final long native_kb)
+    {
+        if (last_native_kb >= 0)
+        {
+            final long delta = native_kb - last_native_kb;
+            SmartDashboard.putNumber("Native growth kB", delta);
+            if (delta > GROWTH_KB)
+            {
+                growth_kb += delta;
+                if (++growing >= GROWTH_PERIODS)
+                    System.out.println("Possible native memory leak: untracked native memory grew by " +
+                                       growth_kb + " kB over the last " + growing + " periods");
+            }
+            else
+            {
+                growing = 0;
+                growth_kb = 0;
+            }
+        }
+        last_native_kb = native_kb;
+    }
+}
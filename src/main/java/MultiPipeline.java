@@ -0,0 +1,107 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import org.opencv.core.Mat;
+
+/** Pipeline that runs several detectors on each frame
+ *
+ *  The detectors share one {@link FrameCache},
+ *  so normalizing, blurring and converting to HSV
+ *  happens only once per frame,
+ *  and detectors with the same HSV limits share the mask.
+ *  Each detector draws its overlay onto its own copy of the frame,
+ *  so the cache and the scene checks of the other detectors
+ *  always see the original frame.
+ *
+ *  The multi pipeline owns the one {@link VisionSender} of the process.
+ *  Only the detector that reports to the RIO gets that {@link #sender},
+ *  all others get {@link VisionSender#NONE}:
+ *  <pre>
+ *  MultiPipeline multi = new MultiPipeline(output, width, height, new VisionSender());
+ *  multi.add(new NickelDimelightPipeline(output, width, height, multi.cache, multi.sender));
+ *  multi.add(new NickelDimelightPipeline(other_output, width, height, multi.cache, VisionSender.NONE));
+ *  </pre>
+ *
+ *  Detectors of the same type share the dashboard entries.
+ */
+public class MultiPipeline extends PlainCopyPipeline implements CapturePipeline
+{
+    /** Frames between publishing statistics */
+    private static final int PUBLISH_PERIOD = 300;
+
+    /** Cache to use for the detectors */
+    public final FrameCache cache;
+
+    /** Transports for the one detector that reports results */
+    public final VisionSender sender;
+
+    private final List<PlainCopyPipeline> detectors = new ArrayList<>();
+
+    /** Copy of the frame for one detector to draw on */
+    private final Mat copy = new Mat();
+
+    private int frames = 0;
+
+    /** @param sender Transports for the detector that reports results */
+    MultiPipeline(final CvSource output, final int width, final int height, final VisionSender sender)
+    {
+        super(output, width, height);
+        cache = new FrameCache(mats);
+        this.sender = sender;
+        mats.keep("copy", copy);
+        SmartDashboard.setDefaultNumber("Blur", 8);
+    }
+
+    /** @param detector Detector that uses the {@link #cache}
+     *  @return The detector
+     */
+    public <P extends PlainCopyPipeline> P add(final P detector)
+    {
+        detectors.add(detector);
+        return detector;
+    }
+
+    @Override
+    public void process(final Mat frame)
+    {
+        process(frame, 0);
+    }
+
+    @Override
+    public void process(final Mat frame, final long frame_time)
+    {
+        calls.incrementAndGet();
+        // Detectors only set the blur of their own cache
+        cache.setBlur((int) SmartDashboard.getNumber("Blur", 8));
+        cache.setFrame(frame);
+        for (PlainCopyPipeline detector : detectors)
+        {
+            // Output streams copy the frame in putFrame(),
+            // so one copy can be re-used for all detectors
+            frame.copyTo(copy);
+            if (detector instanceof CapturePipeline)
+                ((CapturePipeline) detector).process(copy, frame_time);
+            else
+                detector.process(copy);
+            detector.mats.endFrame();
+        }
+
+        if (++frames >= PUBLISH_PERIOD)
+        {
+            frames = 0;
+            SmartDashboard.putNumber("FrameCache hit%", cache.getHitPercentage());
+            for (PlainCopyPipeline detector : detectors)
+                detector.mats.publish();
+        }
+    }
+}
@@ -7,7 +7,8 @@
 
 import edu.wpi.cscore.CvSource;
 import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
-import frc.robot.camera.UDPServer;
+import edu.wpi.first.wpiutil.WPIUtilJNI;
+import frc.robot.camera.ClockSync;
 import frc.robot.camera.VisionData;
 
 import java.util.ArrayList;
@@ -17,7 +18,6 @@ import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Scalar;
 import org.opencv.imgproc.Imgproc;
@@ -29,14 +29,19 @@ import org.opencv.core.Rect;
  * 
  *  See https://en.wikipedia.org/wiki/HSL_and_HSV
  */
-public class NickelDimelightPipeline extends ColorInfoPipeline
+public class NickelDimelightPipeline extends ColorInfoPipeline implements CapturePipeline
 {
     /** Hue (0-180), Luminance (0-255), Saturation (0-255) filter */
-    private final Scalar hsv_min = new Scalar( 75-20,  30.0,  50.0),
+    protected final Scalar hsv_min = new Scalar( 75-20,  30.0,  50.0),
                          hsv_max = new Scalar( 75+20, 255.0, 255.0);
 
-    /** HSV - filtered version of current frame */
-    protected final Mat filt1 = new Mat(), filt2 = new Mat(), filt = new Mat();
+    /** HSV - filtered version of current frame.
+     *  Usually a mask from the frame cache, so it must not be modified
+     */
+    protected Mat filt;
+
+    /** Mask computed by this pipeline instead of the frame cache */
+    protected final Mat own_filt = new Mat();
 
     /** Detected contours */
     private final List<MatOfPoint> contours = new ArrayList<>();
@@ -44,17 +49,67 @@ public class NickelDimelightPipeline extends ColorInfoPipeline
     /** Temporary data for contour filter */
     protected final Mat tmp = new Mat();
 
+    /** Shape info of the contour that's being filtered */
+    private final ContourInfo contour_info = new ContourInfo();
+
+    /** Contour filters, see {@link #addFilters()} */
+    protected final FilterCascade filters = new FilterCascade();
+
+    /** Filter limits for the current frame.
+     *  'largest_area' is the minimum area, raised to the largest area found so far
+     */
+    protected double largest_area, area_max, aspect_min, aspect_max,
+                     fullness_min, fullness_max, circularity_min;
+
     /** Vision data that we send via UDP */
-    private final VisionData vision_data = new VisionData();
+    protected final VisionData vision_data = new VisionData();
+
+    /** Vision data sent while the camera is not delivering frames */
+    private final VisionData no_data = new VisionData();
+
+    /** Sends vision data via UDP and shared memory, and the mask for debugging */
+    private final VisionSender sender;
+
+    /** Brightness 0..255 of target, negative if not known */
+    protected volatile double target_brightness = -1;
 
-    /** UDP server used to send vision data */
-    private final UDPServer udp_server;
+    /** Flight recorder event for current frame, and frame sequence number */
+    protected FrameEvent frame_event = new FrameEvent();
+    private long sequence = 0;
+
+    /** Event re-used while not recording */
+    private final FrameEvent idle_event = frame_event;
+
+    /** Check for static scene where we can re-use the last result */
+    protected final SceneChangeGate scene_gate = new SceneChangeGate();
+
+    /** Pure Java alternative to OpenCV for prepare and threshold, created when first used */
+    private JavaKernels kernels;
+
+    /** Average ms of prepare and threshold for each backend, negative if not used */
+    private double opencv_ms = -1, java_ms = -1;
+
+    /** @param sender Where to send results, {@link VisionSender#NONE} to not send */
+    NickelDimelightPipeline(final CvSource output, final int width, final int height, final VisionSender sender)
+    {
+        this(output, width, height, null, sender);
+    }
 
-    NickelDimelightPipeline(final CvSource output, final int width, final int height) throws Exception
+    /** @param cache Cache shared with other pipelines, or <code>null</code> to use own cache
+     *  @param sender Where to send results, {@link VisionSender#NONE} to not send
+     */
+    NickelDimelightPipeline(final CvSource output, final int width, final int height,
+                            final FrameCache cache, final VisionSender sender)
     {
-        super(output, width, height);
+        super(output, width, height, cache);
+        this.sender = sender;
 
-        udp_server = new UDPServer();
+        filt = mats.keep("threshold", own_filt);
+        mats.keep("contours", tmp);
+        mats.keep("contours", contour_info.contour2f);
+
+        no_data.clear();
+        no_data.valid = false;
 
         // Put initial values on dashboard
         SmartDashboard.setDefaultNumber("HueMin", hsv_min.val[0]);
@@ -72,152 +127,303 @@ public class NickelDimelightPipeline extends ColorInfoPipeline
         SmartDashboard.setDefaultNumber("CircularityMin", 0.0);
 
         SmartDashboard.setDefaultBoolean("SetHSV", false);
+        SmartDashboard.setDefaultBoolean("JavaKernels", false);
     }
     
     @Override
     public void process(final Mat frame)
     {
+        process(frame, 0);
+    }
+
+    @Override
+    public void process(final Mat frame, final long frame_time)
+    {
+        beginFrame(frame_time);
+
+        // Request for HSV snapshot needs a fully processed frame
+        final boolean set_hsv = SmartDashboard.getBoolean("SetHSV", false);
+        if (set_hsv)
+            scene_gate.reset();
+
+        // Scene unchanged? Re-send last result with this frame's
+        // capture time, and skip the expensive processing
+        if (! scene_gate.hasChanged(frame))
+        {
+            calls.incrementAndGet();
+            frame_event.skipped = true;
+            send();
+
+            showInfo(frame, String.format("# %3d static", calls.get()));
+            output.putFrame(frame);
+            frame_event.commit();
+            return;
+        }
+
+        // Count here, not in prepare(), so both kernel backends are counted
+        calls.incrementAndGet();
+        if (SmartDashboard.getBoolean("JavaKernels", false))
+        {
+            thresholdJava(frame, set_hsv);
+            java_ms = updateKernelTime("Java", java_ms);
+        }
+        else
+        {
+            thresholdOpenCV(frame, set_hsv);
+            opencv_ms = updateKernelTime("OpenCV", opencv_ms);
+        }
+
+        detect(frame);
+
+        final String info = String.format("# %3d HSV %3d %3d %3d",
+                                         calls.get(),
+                                         center_h,
+                                         center_s,
+                                         center_v);
+        showInfo(frame, info);
+
+        // Publish 'output'
+        // Typically show 'frame', i.e., original image with overlay.
+        // But could show other intermediate image while debugging.
+        output.putFrame(frame);
+        frame_event.commit();
+    }
+
+    /** Prepare frame and threshold into 'filt' using OpenCV
+     *  @param frame Original frame
+     *  @param set_hsv Update HSV limits from center of image?
+     */
+    private void thresholdOpenCV(final Mat frame, final boolean set_hsv)
+    {
+        long start = System.nanoTime();
         prepare(frame);
+        frame_event.prepare = System.nanoTime() - start;
 
         // Get snapshot of HSV in center?
-        if (SmartDashboard.getBoolean("SetHSV", false))
+        if (set_hsv)
+            snapshotHSV();
+
+        // Filter on Hue, Saturation and value
+        start = System.nanoTime();
+        readLimits();
+
+        // Hue range may wrap around 180, see FrameCache
+        filt = cache.mask(hsv_min, hsv_max);
+        frame_event.threshold = System.nanoTime() - start;
+    }
+
+    /** Prepare frame and threshold into 'filt' using {@link JavaKernels}
+     *  @param frame Original frame
+     *  @param set_hsv Update HSV limits from center of image?
+     */
+    private void thresholdJava(final Mat frame, final boolean set_hsv)
+    {
+        long start = System.nanoTime();
+        if (kernels == null)
+            kernels = new JavaKernels(width, height, getBlur());
+        else
+            kernels.setBlur(getBlur());
+        kernels.prepare(frame);
+
+        bgr_stats.compute(kernels.norm, width, height, 3);
+        hsv_stats.compute(kernels.hsv, width, height, 3);
+        updateCenter();
+        showCenter(frame);
+        frame_event.prepare = System.nanoTime() - start;
+
+        if (set_hsv)
+            snapshotHSV();
+
+        // Filter on Hue, Saturation and value
+        start = System.nanoTime();
+        readLimits();
+        kernels.threshold(hsv_min, hsv_max);
+        own_filt.create(height, width, CvType.CV_8UC1);
+        own_filt.put(0, 0, kernels.mask);
+        filt = own_filt;
+        frame_event.threshold = System.nanoTime() - start;
+    }
+
+    /** @param backend Name of kernel backend
+     *  @param average Previous average ms, negative if none
+     *  @return Updated average ms of prepare and threshold
+     */
+    private double updateKernelTime(final String backend, final double average)
+    {
+        final double ms = (frame_event.prepare + frame_event.threshold) / 1e6;
+        final double result = average < 0 ? ms : 0.9 * average + 0.1 * ms;
+        SmartDashboard.putNumber("Kernels ms " + backend, result);
+        return result;
+    }
+
+    /** Start flight recorder event for the next frame and set its capture time
+     *  @param frame_time Time when cscore grabbed the frame, microseconds of WPIUtilJNI.now(), 0 if not known
+     */
+    protected void beginFrame(final long frame_time)
+    {
+        // Committed events must not be re-used,
+        // so only allocate a new one while recording
+        if (FrameEvent.isRecording())
+            frame_event = new FrameEvent();
+        else
         {
-            // Reset button
-            SmartDashboard.putBoolean("SetHSV", false);
-
-            SmartDashboard.putNumber("HueMin", (center_h-10 + 180.0) % 180.0);
-            SmartDashboard.putNumber("HueMax", (center_h+10) % 180.0);
-            SmartDashboard.putNumber("SatMin", Math.max(0, center_s-10));
-            SmartDashboard.putNumber("SatMax", Math.min(center_s+10, 255));
-            SmartDashboard.putNumber("ValMin", Math.max(0, center_v-10));
-            SmartDashboard.putNumber("ValMax", Math.min(center_s+10, 255));
+            frame_event = idle_event;
+            frame_event.clear();
         }
+        frame_event.begin();
+        frame_event.sequence = ++sequence;
+
+        // cscore stamps frames with its own microsecond clock.
+        // Convert the time of this frame into the clock used for ClockSync
+        long capture = ClockSync.now();
+        if (frame_time > 0)
+            capture -= WPIUtilJNI.now() - frame_time;
+        vision_data.capture = capture;
+    }
 
+    /** Add contour filters
+     *
+     *  Called on the first frame, not from the constructor,
+     *  so derived pipelines may add more filters that use their own fields.
+     *  The cascade will order them.
+     */
+    protected void addFilters()
+    {
+        filters.add("Area", info ->
+        {
+            final double area = info.area();
+            return area >= largest_area  &&  area <= area_max;
+        });
+        filters.add("Aspect", info ->
+        {
+            final double aspect = info.aspect();
+            return aspect >= aspect_min  &&  aspect <= aspect_max;
+        });
+        filters.add("Fullness", info ->
+        {
+            final double fullness = info.fullness();
+            return fullness >= fullness_min  &&  fullness <= fullness_max;
+        });
+        // Only compute perimeter if there's a limit
+        filters.add("Circularity", info -> circularity_min <= 0  ||  info.circularity() >= circularity_min);
+    }
 
-        // Filter on Hue, Saturation and value
+    /** Send 'vision_data' via UDP and shared memory */
+    protected void send()
+    {
+        final long start = System.nanoTime();
+        sender.send(vision_data);
+        frame_event.send = System.nanoTime() - start;
+    }
+
+    /** Tell clients that there is no data, for example because the camera stalled
+     *
+     *  Called by {@link CameraWatchdog} while the vision thread is stuck
+     */
+    public void sendNoData()
+    {
+        no_data.capture = ClockSync.now();
+        sender.send(no_data);
+    }
+
+    /** @param frame Original frame
+     *  @return Brightness 0..255 of the pixels in 'filt'
+     */
+    protected double measureBrightness(final Mat frame)
+    {
+        final Scalar mean = Core.mean(frame, filt);
+        return Math.max(mean.val[0], Math.max(mean.val[1], mean.val[2]));
+    }
+
+    /** Update HSV limits on dashboard from center of image */
+    protected void snapshotHSV()
+    {
+        // Reset button
+        SmartDashboard.putBoolean("SetHSV", false);
+
+        SmartDashboard.putNumber("HueMin", (center_h-10 + 180.0) % 180.0);
+        SmartDashboard.putNumber("HueMax", (center_h+10) % 180.0);
+        SmartDashboard.putNumber("SatMin", Math.max(0, center_s-10));
+        SmartDashboard.putNumber("SatMax", Math.min(center_s+10, 255));
+        SmartDashboard.putNumber("ValMin", Math.max(0, center_v-10));
+        SmartDashboard.putNumber("ValMax", Math.min(center_s+10, 255));
+    }
+
+    /** Read HSV limits from dashboard */
+    protected void readLimits()
+    {
         hsv_min.val[0] = SmartDashboard.getNumber("HueMin", hsv_min.val[0]);
         hsv_max.val[0] = SmartDashboard.getNumber("HueMax", hsv_max.val[0]);
         hsv_min.val[1] = SmartDashboard.getNumber("SatMin", hsv_min.val[1]);
         hsv_max.val[1] = SmartDashboard.getNumber("SatMax", hsv_max.val[1]);
         hsv_min.val[2] = SmartDashboard.getNumber("ValMin", hsv_min.val[2]);
         hsv_max.val[2] = SmartDashboard.getNumber("ValMax", hsv_max.val[2]);
+    }
 
-        // The OpenCV hue range is
-        // red    green     blue     red
-        // 0.......70........120.....180
-        //
-        // If we want 'green', we can use a hue min..max of say 60..80.
-        // But if we want 'red', we really need to check both 0..10 and 170..180.
-        //
-        // Support that by allowing min=170, max=10,
-        // detecting the wraparound at 180 if min > max.
-        if (hsv_min.val[0] <= hsv_max.val[0])
-        {
-            // If we want a red range of 0..10, that's fine.
-            // So is a red range of 170..180.
-            // Or 10..170 to get all colors except red.
-            Core.inRange(hsv, hsv_min, hsv_max, filt);
-        }
-        else
-        {
-            // But if we want a range of say 170..10, 'wrapping around' the 180 degree point,
-            // we need to check this in two steps
-            double hue_min = hsv_min.val[0];
-            double hue_max = hsv_max.val[0];
-
-            // Check 0 .. 10
-            hsv_min.val[0] = 0.0;
-            hsv_max.val[0] = hue_max;
-            Core.inRange(hsv, hsv_min, hsv_max, filt1);
-
-            // Check 170..180
-            hsv_min.val[0] = hue_min;
-            hsv_max.val[0] = 180.0;
-            Core.inRange(hsv, hsv_min, hsv_max, filt2);
-
-            // Add the result of 0..10 and 170..180
-            Core.add(filt1, filt2, filt);
-
-            // Restore limits "170..10"
-            hsv_min.val[0] = hue_min;
-            hsv_max.val[0] = hue_max;
-        }
-
+    /** Locate target in 'filt', publish and send result
+     *  @param frame Frame for overlay, may be <code>null</code>
+     */
+    protected void detect(final Mat frame)
+    {
         // Find contours
-        contours.clear();
+        long start = System.nanoTime();
         Imgproc.findContours(filt, contours, tmp, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+        mats.frame("contours", contours);
+        frame_event.contours = System.nanoTime() - start;
+        frame_event.contour_count = contours.size();
 
         // Get largest contour
+        start = System.nanoTime();
         int largest_contour_index = -1;
-        double largest_area = SmartDashboard.getNumber("AreaMin", 0.0);
-        final double area_max = SmartDashboard.getNumber("AreaMax", width * height);
-        final double aspect_min = SmartDashboard.getNumber("AspectMin", 0.0);
-        final double aspect_max = SmartDashboard.getNumber("AspectMax", 20);
-        final double fullness_min = SmartDashboard.getNumber("FullnessMin", 0.0);
-        final double fullness_max = SmartDashboard.getNumber("FullnessMax", 100.0);
-        final double circularity_min = SmartDashboard.getNumber("CircularityMin", 0.0);
-
+        largest_area = SmartDashboard.getNumber("AreaMin", 0.0);
+        area_max = SmartDashboard.getNumber("AreaMax", width * height);
+        aspect_min = SmartDashboard.getNumber("AspectMin", 0.0);
+        aspect_max = SmartDashboard.getNumber("AspectMax", 20);
+        fullness_min = SmartDashboard.getNumber("FullnessMin", 0.0);
+        fullness_max = SmartDashboard.getNumber("FullnessMax", 100.0);
+        circularity_min = SmartDashboard.getNumber("CircularityMin", 0.0);
+
+        if (filters.isEmpty())
+            addFilters();
         for (int i=0; i<contours.size(); ++i)
         {
-            final MatOfPoint contour = contours.get(i);
-
-            // Filter on contour's area
-            final double area = Imgproc.contourArea(contour);
-            if (area < largest_area  ||  area > area_max)
-                continue;
-                        
-            // Filter on aspect ratio 0 (tall) .. 1 (square) .. 20 (wide)
-            final Rect bounds = Imgproc.boundingRect(contour);
-            final double aspect = (double)bounds.width / bounds.height;
-            if (aspect < aspect_min  ||  aspect > aspect_max)
-                continue;
-                
-            // Filter on fullness (percent): 0% (hollow) .. 100% (solid, full)
-            final double fullness = 100.0 * area / (bounds.width * bounds.height);
-            if (fullness < fullness_min  ||  fullness > fullness_max)
-                continue;
-
-            // Perimeter
-            final MatOfPoint2f contour2f = new MatOfPoint2f();
-            contour.convertTo(contour2f, CvType.CV_32F);
-            final double perimeter = Imgproc.arcLength(contour2f, true);
-                            
-            // Circularity = 4*Math.PI*area / perimeter^2
-            // Circle:
-            //      4*pi*(pi*r*r)/(2*pi*r)^2 =
-            //      4*pi*pi*r*r/(4*pi*pi*r*r) = 1
-            //
-            // Square:
-            //      4*pi*d*d/(4*d)^2 =
-            //      4*pi*d*d/(16*d*d) = pi/4 = 0.78
-            final double circularity = 4*Math.PI*area / (perimeter*perimeter);
-            SmartDashboard.putNumber("Circularity", circularity);
-            if (circularity < circularity_min)
+            contour_info.set(contours.get(i));
+            if (! filters.accept(contour_info))
                 continue;
 
             // Imgproc.drawContours(frame, contours, i, overlay_bgr);
             // Imgproc.rectangle(frame, bounds.tl(), bounds.br(), overlay_bgr);
 
             // Passed all tests: This is so far the largest area that we like
-            largest_area = area;
+            largest_area = contour_info.area();
             largest_contour_index = i;
         }
+        frame_event.filter = System.nanoTime() - start;
+        frame_event.found = largest_contour_index >= 0;
 
         // Found anything?
         if (largest_contour_index >= 0)
         {
-            // Show largest contour
-            Imgproc.drawContours(frame, contours, largest_contour_index, overlay_bgr);
+            // Measure before adding overlay, and only when needed for auto-exposure
+            target_brightness = SmartDashboard.getBoolean("AutoExposure", false)
+                              ? measureBrightness(frame)
+                              : -1;
 
-            // Arrow from mid-bottom of image to center of blob
             final MatOfPoint largest_contour = contours.get(largest_contour_index);
             final Rect bounds = Imgproc.boundingRect(largest_contour);
             final int horiz_pos = bounds.x + bounds.width/2;
             final int vert_pos  = bounds.y + bounds.height/2;
-            Imgproc.arrowedLine(frame,
-                                new Point(width/2, height-1),
-                                new Point(horiz_pos, vert_pos),
-                                overlay_bgr);
+            if (frame != null)
+            {
+                // Show largest contour
+                Imgproc.drawContours(frame, contours, largest_contour_index, overlay_bgr);
+
+                // Arrow from mid-bottom of image to center of blob
+                Imgproc.arrowedLine(frame,
+                                    new Point(width/2, height-1),
+                                    new Point(horiz_pos, vert_pos),
+                                    overlay_bgr);
+            }
 
             // Publish direction to detected blob in pixels from center
             // 0 - In center or not found, i.e. no reason to move
@@ -235,7 +441,7 @@ public class NickelDimelightPipeline extends ColorInfoPipeline
             // Send info ASAP via UDP
             vision_data.direction = direction;
             vision_data.distance = distance;
-            udp_server.send(vision_data);
+            send();
 
             SmartDashboard.putNumber("Area", largest_area);    
 
@@ -244,30 +450,33 @@ public class NickelDimelightPipeline extends ColorInfoPipeline
 
             final double aspect = (double)bounds.width / bounds.height;
             SmartDashboard.putNumber("Aspect", aspect);    
+
+            contour_info.set(largest_contour);
+            SmartDashboard.putNumber("Circularity", contour_info.circularity());
         }
         else
         {
+            target_brightness = -1;
             SmartDashboard.putNumber("Direction", 0);
             SmartDashboard.putNumber("Distance", 0);
             SmartDashboard.putNumber("Area", 0);    
             SmartDashboard.putNumber("Fullness", -1);    
             SmartDashboard.putNumber("Aspect", -1);   
+            SmartDashboard.putNumber("Circularity", -1);
 
             // Send info ASAP via UDP
             vision_data.clear();
-            udp_server.send(vision_data);
+            send();
         }
 
-        final String info = String.format("# %3d HSV %3d %3d %3d",
-                                         calls.get(),
-                                         center_h,
-                                         center_s,
-                                         center_v);
-        showInfo(frame, info);
+        // Send mask and contours to debug viewer, if there is one
+        if (sender.isMaskActive())
+            sender.sendMask(filt, contours, largest_contour_index);
 
-        // Publish 'output'
-        // Typically show 'frame', i.e., original image with overlay.
-        // But could show other intermediate image while debugging.
-        output.putFrame(frame);
+        // findContours creates a new MatOfPoint for each contour.
+        // Release their native memory now instead of waiting for the GC
+        for (MatOfPoint contour : contours)
+            contour.release();
+        contours.clear();
     }
 }
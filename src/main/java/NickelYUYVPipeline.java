@@ -0,0 +1,177 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.nio.ByteBuffer;
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/** Nickel-and-Dimelight that processes the camera's YUYV frames
+ *
+ *  The plain NickelDimelightPipeline receives frames that cscore
+ *  converted from the camera's YUYV to BGR,
+ *  then converts them to HSV.
+ *  This pipeline classifies the YUYV pixels directly via {@link YUVClassifier}.
+ *  BGR is only computed for the "Processed" stream
+ *  when "ShowProcessed" is enabled on the dashboard.
+ *  It is off by default, keeping the lean path without MJPEG encoding.
+ *
+ *  Unlike prepare(), the frame is not normalized,
+ *  so HSV limits may need to be re-tuned.
+ *  Instead of blurring the image before the HSV check,
+ *  the mask is smoothed, using the "Blur" size from the dashboard.
+ */
+public class NickelYUYVPipeline extends NickelDimelightPipeline implements YUYVPipeline
+{
+    private final YUVClassifier classifier = new YUVClassifier();
+
+    /** Mask computed by the classifier, then copied into 'filt' */
+    private final byte[] mask;
+
+    /** Mat that wraps the raw YUYV buffer (no copy) */
+    private ByteBuffer yuyv_buffer = null;
+    private Mat yuyv = new Mat();
+
+    /** BGR version of the frame for the processed stream */
+    private final Mat frame = new Mat();
+
+    /** Size used to smooth the mask, updated from "Blur" */
+    private final Size smooth = new Size(8, 8);
+
+    /** Temporary values for center probe */
+    private final int[] bgr = new int[3], hsv = new int[3];
+
+    /** @param sender Where to send results */
+    NickelYUYVPipeline(final CvSource output, final int width, final int height, final VisionSender sender)
+    {
+        super(output, width, height, sender);
+        mask = new byte[width * height];
+        filt.create(height, width, CvType.CV_8UC1);
+        mats.keep("stream", frame);
+        SmartDashboard.setDefaultBoolean("ShowProcessed", false);
+    }
+
+    @Override
+    public void process(final ByteBuffer buffer, final long frame_time)
+    {
+        beginFrame(frame_time);
+
+        // Re-wrap if cscore handed us a different buffer
+        if (buffer != yuyv_buffer)
+        {
+            yuyv.release();
+            yuyv = new Mat(height, width, CvType.CV_8UC2, buffer);
+            yuyv_buffer = buffer;
+        }
+
+        final boolean show = SmartDashboard.getBoolean("ShowProcessed", false);
+        final boolean set_hsv = SmartDashboard.getBoolean("SetHSV", false);
+        if (set_hsv)
+            scene_gate.reset();
+
+        if (! scene_gate.hasChanged(yuyv))
+        {
+            calls.incrementAndGet();
+            frame_event.skipped = true;
+            send();
+            if (show)
+            {
+                Imgproc.cvtColor(yuyv, frame, Imgproc.COLOR_YUV2BGR_YUYV);
+                showInfo(frame, String.format("# %3d static", calls.get()));
+                output.putFrame(frame);
+            }
+            frame_event.commit();
+            return;
+        }
+
+        calls.incrementAndGet();
+        long start = System.nanoTime();
+        probeCenter(buffer);
+        frame_event.prepare = System.nanoTime() - start;
+        if (set_hsv)
+            snapshotHSV();
+
+        // Threshold via YUV table
+        start = System.nanoTime();
+        readLimits();
+        classifier.update(hsv_min, hsv_max);
+        classifier.classify(buffer, mask, width * height);
+        filt.put(0, 0, mask);
+
+        // Like blurring the image before checking HSV,
+        // but only on the mask: Pixel stays if most neighbors are set
+        smooth.width = smooth.height = getBlur();
+        Imgproc.blur(filt, filt, smooth);
+        Imgproc.threshold(filt, filt, 127, 255, Imgproc.THRESH_BINARY);
+        frame_event.threshold = System.nanoTime() - start;
+
+        if (show)
+        {
+            Imgproc.cvtColor(yuyv, frame, Imgproc.COLOR_YUV2BGR_YUYV);
+            detect(frame);
+            Imgproc.rectangle(frame,
+                              new Point(width/2 - 2, height/2 - 2),
+                              new Point(width/2 + 2, height/2 + 2),
+                              overlay_bgr);
+            final String info = String.format("# %3d HSV %3d %3d %3d",
+                                              calls.get(),
+                                              center_h,
+                                              center_s,
+                                              center_v);
+            showInfo(frame, info);
+            output.putFrame(frame);
+        }
+        else
+            detect(null);
+        frame_event.commit();
+    }
+
+    @Override
+    protected double measureBrightness(final Mat frame)
+    {
+        // Luma of the raw frame, 'frame' may be null
+        return Core.mean(yuyv, filt).val[0];
+    }
+
+    /** Average YUV over 9 pixels at center, convert to BGR and HSV */
+    private void probeCenter(final ByteBuffer buffer)
+    {
+        int y = 0, u = 0, v = 0, avg = 0;
+        for (int row=height/2-1; row<=height/2+1; ++row)
+            for (int col=width/2-1; col<=width/2+1; ++col)
+            {
+                // Each pair of pixels shares U and V
+                final int pair = 2*(row*width + (col & ~1));
+                y += buffer.get(2*(row*width + col)) & 0xFF;
+                u += buffer.get(pair + 1) & 0xFF;
+                v += buffer.get(pair + 3) & 0xFF;
+                ++avg;
+            }
+        YUVClassifier.yuv2bgr(y/avg, u/avg, v/avg, bgr);
+        YUVClassifier.bgr2hsv(bgr[0], bgr[1], bgr[2], hsv);
+        center_b = bgr[0];
+        center_g = bgr[1];
+        center_r = bgr[2];
+        center_h = hsv[0];
+        center_s = hsv[1];
+        center_v = hsv[2];
+
+        SmartDashboard.putNumber("Center B", center_b);
+        SmartDashboard.putNumber("Center G", center_g);
+        SmartDashboard.putNumber("Center R", center_r);
+        SmartDashboard.putNumber("Center H", center_h);
+        SmartDashboard.putNumber("Center S", center_s);
+        SmartDashboard.putNumber("Center V", center_v);
+    }
+}
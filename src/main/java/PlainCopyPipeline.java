@@ -30,6 +30,9 @@ public class PlainCopyPipeline implements VisionPipeline
     protected final CvSource output;
     protected final int width, height;
 
+    /** Accounting for native memory of OpenCV Mats */
+    protected final MatTracker mats;
+
     /** Colors for drawing overlay */
     protected final Scalar overlay_bgr = new Scalar(200.0, 100.0, 255.0), contrast_bgr = new Scalar(0, 0, 0);
 
@@ -38,6 +41,7 @@ public class PlainCopyPipeline implements VisionPipeline
         this.output = output;
         this.width = width;
         this.height = height;
+        mats = new MatTracker(getClass().getSimpleName());
     }
 
     /** Show info at bottom of image.
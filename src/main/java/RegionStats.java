@@ -0,0 +1,162 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/** Statistics for regions of an 8-bit image
+ *
+ *  Probing pixels one by one via Mat.get(row, col, ..)
+ *  means one JNI call per pixel.
+ *  This copies the rows that hold regions into a re-used byte[] in one call,
+ *  then computes mean, min, max and histogram
+ *  for any number of regions in plain Java.
+ */
+public class RegionStats
+{
+    /** Statistics for one rectangular region */
+    public static class Region
+    {
+        /** Region of the image. May be changed, for example to follow a target */
+        public final Rect rect;
+
+        /** Mean, minimum, maximum for each channel */
+        public final double[] mean;
+        public final int[] min, max;
+
+        /** Histogram for each channel, bins cover 0..255 */
+        public final int[][] histogram;
+
+        Region(final Rect rect, final int channels, final int bins)
+        {
+            this.rect = rect;
+            mean = new double[channels];
+            min = new int[channels];
+            max = new int[channels];
+            histogram = new int[channels][bins];
+        }
+    }
+
+    private final int bins;
+    private final List<Region> regions = new ArrayList<>();
+    private byte[] data = new byte[0];
+
+    /** @param bins Number of histogram bins per channel, 0 to skip histogram */
+    public RegionStats(final int bins)
+    {
+        this.bins = bins;
+    }
+
+    /** @param rect Region to add
+     *  @param channels Number of channels in images that will be analyzed
+     *  @return {@link Region} that will hold the statistics
+     */
+    public Region add(final Rect rect, final int channels)
+    {
+        final Region region = new Region(rect, channels, bins);
+        regions.add(region);
+        return region;
+    }
+
+    /** Update statistics for all regions
+     *  @param image 8-bit image with 1 or more channels
+     */
+    public void compute(final Mat image)
+    {
+        if (image.depth() != CvType.CV_8U)
+            throw new IllegalArgumentException("Need 8-bit image, got " + CvType.typeToString(image.type()));
+        final int cols = image.cols(), rows = image.rows(), channels = image.channels();
+
+        // Only copy the band of rows covered by regions,
+        // for example 3 rows for a 3x3 probe at the center
+        int first = rows, last = 0;
+        for (Region region : regions)
+        {
+            first = Math.min(first, Math.max(0, region.rect.y));
+            last = Math.max(last, Math.min(rows, region.rect.y + region.rect.height));
+        }
+        if (last < first)
+            last = first;
+        // Array only grows, to the largest band so far.
+        // A larger array receives more rows than the band, which are ignored
+        final int size = (last - first) * cols * channels;
+        if (data.length < size)
+            data = new byte[size];
+        if (size > 0)
+            image.get(first, 0, data);
+        compute(data, cols, first, last, channels);
+    }
+
+    /** Update statistics for all regions
+     *  @param data 8-bit image data, channels interleaved
+     *  @param cols Image width
+     *  @param rows Image height
+     *  @param channels Number of channels
+     */
+    public void compute(final byte[] data, final int cols, final int rows, final int channels)
+    {
+        compute(data, cols, 0, rows, channels);
+    }
+
+    /** @param data 8-bit image data of rows first .. last-1, channels interleaved
+     *  @param cols Image width
+     *  @param first First row in data
+     *  @param last Row after last row in data
+     *  @param channels Number of channels
+     */
+    private void compute(final byte[] data, final int cols, final int first, final int last, final int channels)
+    {
+        for (Region region : regions)
+        {
+            // Clip region to image
+            final int x0 = Math.max(0, region.rect.x);
+            final int y0 = Math.max(first, region.rect.y);
+            final int x1 = Math.min(cols, region.rect.x + region.rect.width);
+            final int y1 = Math.min(last, region.rect.y + region.rect.height);
+            final int count = Math.max(0, x1 - x0) * Math.max(0, y1 - y0);
+            final int used = Math.min(channels, region.mean.length);
+            for (int c=0; c<used; ++c)
+            {
+                int sum = 0, min = 255, max = 0;
+                final int[] hist = region.histogram[c];
+                for (int b=0; b<bins; ++b)
+                    hist[b] = 0;
+                for (int y=y0; y<y1; ++y)
+                {
+                    int i = ((y-first)*cols + x0)*channels + c;
+                    for (int x=x0; x<x1; ++x)
+                    {
+                        final int value = data[i] & 0xFF;
+                        sum += value;
+                        if (value < min)
+                            min = value;
+                        if (value > max)
+                            max = value;
+                        if (bins > 0)
+                            ++hist[value * bins / 256];
+                        i += channels;
+                    }
+                }
+                if (count > 0)
+                {
+                    region.mean[c] = (double) sum / count;
+                    region.min[c] = min;
+                    region.max[c] = max;
+                }
+                else
+                {
+                    region.mean[c] = 0.0;
+                    region.min[c] = region.max[c] = 0;
+                }
+            }
+        }
+    }
+}
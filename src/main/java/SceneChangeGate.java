@@ -0,0 +1,116 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.wpilibj.smartdashboard.SmartDashboard;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/** Cheap check if the scene changed since the last fully processed frame
+ *
+ *  While the robot is disabled, lined up or waiting,
+ *  the camera keeps delivering pretty much the same image.
+ *  Running the complete pipeline on each of them heats the Pi
+ *  until it throttles.
+ *
+ *  Frame is shrunk to a tiny thumbnail, and the average
+ *  absolute difference to the thumbnail of the last fully
+ *  processed frame is compared against a threshold.
+ *
+ *  Tunable via dashboard:
+ *  "SceneThreshold" - Average pixel change (0..255) below which frame is considered unchanged,
+ *                     0 to always process
+ *  "SceneMaxSkip"   - Max. number of frames to skip in a row,
+ *                     so dashboard changes to the pipeline settings
+ *                     still take effect
+ *
+ *  Published:
+ *  "SceneDiff"      - Difference of the current frame
+ *  "SceneSkip%"     - Percentage of skipped frames
+ */
+public class SceneChangeGate
+{
+    /** Size of thumbnail. Small enough to be cheap, large enough to notice a target moving */
+    private static final Size thumb_size = new Size(40, 30);
+
+    /** Number of frames over which the skip percentage is computed */
+    private static final int skip_window = 100;
+
+    /** Thumbnail of current frame, last fully processed frame, difference */
+    private final Mat thumb = new Mat(), reference = new Mat(), diff = new Mat();
+
+    /** Frames skipped in a row */
+    private int skipped = 0;
+
+    /** Frames and skipped frames in current window */
+    private int window_frames = 0, window_skips = 0;
+
+    public SceneChangeGate()
+    {
+        SmartDashboard.setDefaultNumber("SceneThreshold", 2.0);
+        SmartDashboard.setDefaultNumber("SceneMaxSkip", 15);
+    }
+
+    /** Force next frame to be processed, for example because settings changed */
+    public void reset()
+    {
+        reference.release();
+    }
+
+    /** @param frame Current frame
+     *  @return <code>true</code> if frame needs to be processed,
+     *          <code>false</code> if it's about the same as the last processed frame
+     */
+    public boolean hasChanged(final Mat frame)
+    {
+        final double threshold = SmartDashboard.getNumber("SceneThreshold", 2.0);
+        final int max_skip = (int) SmartDashboard.getNumber("SceneMaxSkip", 15);
+
+        // INTER_AREA averages all pixels, so sensor noise mostly cancels out
+        Imgproc.resize(frame, thumb, thumb_size, 0, 0, Imgproc.INTER_AREA);
+
+        boolean changed = true;
+        if (! reference.empty()  &&  reference.type() == thumb.type())
+        {
+            Core.absdiff(thumb, reference, diff);
+            final Scalar mean = Core.mean(diff);
+            final int channels = thumb.channels();
+            double change = 0.0;
+            for (int c=0; c<channels; ++c)
+                change += mean.val[c];
+            change /= channels;
+            SmartDashboard.putNumber("SceneDiff", change);
+
+            changed = change >= threshold  ||  skipped >= max_skip;
+        }
+
+        // Keep the thumbnail of the last processed frame as reference,
+        // not that of the last skipped frame,
+        // so a slow drift will eventually be noticed
+        if (changed)
+        {
+            thumb.copyTo(reference);
+            skipped = 0;
+        }
+        else
+        {
+            ++skipped;
+            ++window_skips;
+        }
+
+        if (++window_frames >= skip_window)
+        {
+            SmartDashboard.putNumber("SceneSkip%", 100.0 * window_skips / window_frames);
+            window_frames = window_skips = 0;
+        }
+
+        return changed;
+    }
+}
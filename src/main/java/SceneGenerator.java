@@ -0,0 +1,241 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Random;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/** Render synthetic camera frames
+ *
+ *  Scene is configured via the public fields.
+ *  Each call to {@link #render(Mat)} advances the 'motion'
+ *  so consecutive frames differ.
+ */
+public class SceneGenerator
+{
+    /** Image size */
+    public final int width, height;
+
+    /** Number of retro-reflective tape strips, arranged along an arc like the 2022 hub */
+    public int tape_strips = 4;
+
+    /** Number of red and blue balls */
+    public int balls = 0;
+
+    /** Number of random background rectangles and lines */
+    public int clutter = 0;
+
+    /** Number of small target-colored specks, each a separate contour.
+     *  They're placed on a grid with one speck size of space between them,
+     *  see {@link #maxSpeckles()}
+     */
+    public int speckles = 0;
+
+    /** Size of specks. Smaller ones are erased by the blur in ColorInfoPipeline.prepare */
+    public int speckle_size = 6;
+
+    /** Fraction 0..1 of the image covered by target-colored glare */
+    public double glare = 0.0;
+
+    /** Standard deviation of sensor noise */
+    public double noise = 0.0;
+
+    /** Length of horizontal motion blur in pixels, 0 for none */
+    public int motion_blur = 0;
+
+    /** Darkening 0..255 from left to right edge */
+    public int gradient = 0;
+
+    /** Pixels that the scene moves per frame */
+    public double speed = 1.0;
+
+    /** Colors */
+    public Scalar background = new Scalar(40, 40, 40),
+                  tape = new Scalar(60, 230, 60),
+                  red = new Scalar(30, 30, 200),
+                  blue = new Scalar(200, 60, 30);
+
+    private final Random random = new Random(2393);
+    private long frame_count = 0;
+
+    /** Temporary images for noise, blur, gradient */
+    private final Mat wide = new Mat(), noise_image = new Mat(), blur_kernel = new Mat(), gradient_image = new Mat();
+    private int blur_size = -1, gradient_size = -1;
+
+    /** Corners of a tape strip */
+    private final MatOfPoint strip = new MatOfPoint();
+
+    public SceneGenerator(final int width, final int height)
+    {
+        this.width = width;
+        this.height = height;
+    }
+
+    /** Configure a named scene
+     *
+     *  "target", "balls", "clutter", "speckle", "glare", "worst"
+     *
+     *  @param name Scene name
+     */
+    public void configure(final String name)
+    {
+        tape_strips = 4;
+        balls = clutter = speckles = motion_blur = gradient = 0;
+        glare = noise = 0.0;
+        switch (name)
+        {
+        case "target":
+            noise = 4;
+            break;
+        case "balls":
+            balls = 10;
+            noise = 4;
+            break;
+        case "clutter":
+            balls = 4;
+            clutter = 200;
+            noise = 8;
+            motion_blur = 5;
+            gradient = 80;
+            break;
+        case "speckle":
+            speckles = maxSpeckles();
+            break;
+        case "glare":
+            glare = 0.8;
+            noise = 25;
+            break;
+        case "worst":
+            balls = 10;
+            clutter = 200;
+            speckles = maxSpeckles();
+            glare = 0.3;
+            noise = 25;
+            motion_blur = 9;
+            gradient = 80;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown scene '" + name + "'");
+        }
+    }
+
+    /** @return Number of specks that fit onto the grid without touching */
+    public int maxSpeckles()
+    {
+        final int pitch = 2 * speckle_size;
+        return (width / pitch) * (height / pitch);
+    }
+
+    /** @param frame Frame to render, will be set to BGR image of configured size */
+    public void render(final Mat frame)
+    {
+        frame.create(height, width, CvType.CV_8UC3);
+        frame.setTo(background);
+        final double offset = (frame_count++ * speed) % width;
+
+        // Same clutter each frame, just moving
+        random.setSeed(2393);
+        for (int i=0; i<clutter; ++i)
+        {
+            final Scalar color = new Scalar(random.nextInt(256), random.nextInt(256), random.nextInt(256));
+            final double x = (random.nextInt(width) + offset) % width, y = random.nextInt(height);
+            if (random.nextBoolean())
+                Imgproc.rectangle(frame, new Point(x, y),
+                                  new Point(x + random.nextInt(40), y + random.nextInt(40)),
+                                  color, -1);
+            else
+                Imgproc.line(frame, new Point(x, y),
+                             new Point(random.nextInt(width), random.nextInt(height)),
+                             color, 1 + random.nextInt(3));
+        }
+
+        if (glare > 0)
+        {
+            // Ellipse with area glare * image area
+            final double scale = Math.sqrt(glare * 4 / Math.PI);
+            Imgproc.ellipse(frame,
+                            new RotatedRect(new Point(width/2.0 + offset/4, height/2.0),
+                                            new Size(width * scale, height * scale), 0),
+                            tape, -1);
+        }
+
+        for (int i=0; i<balls; ++i)
+        {
+            final double x = (random.nextInt(width) + 2*offset) % width, y = random.nextInt(height);
+            Imgproc.circle(frame, new Point(x, y), 5 + random.nextInt(20), (i % 2 == 0) ? red : blue, -1);
+        }
+
+        // Tape strips along an arc, 5 x 2 ratio
+        final double strip_w = width / 25.0, strip_h = strip_w * 2 / 5;
+        for (int i=0; i<tape_strips; ++i)
+        {
+            final double angle = (i - (tape_strips-1)/2.0) * 10.0;
+            final double x = (width/2.0 + offset + i * strip_w * 1.5 - tape_strips * strip_w * 0.75) % width;
+            final double y = height / 3.0 + Math.abs(angle) / 2;
+            final Point[] corners = new Point[4];
+            new RotatedRect(new Point(x, y), new Size(strip_w, strip_h), angle).points(corners);
+            strip.fromArray(corners);
+            Imgproc.fillConvexPoly(frame, strip, tape);
+        }
+
+        // Specks on a grid so they don't merge into fewer contours,
+        // spread over the grid when there are fewer specks than cells
+        final int pitch = 2 * speckle_size, columns = width / pitch, cells = maxSpeckles();
+        final int specks = Math.min(speckles, cells);
+        for (int i=0; i<specks; ++i)
+        {
+            final int cell = (int) ((long) i * cells / specks);
+            final int x = (cell % columns) * pitch, y = (cell / columns) * pitch;
+            Imgproc.rectangle(frame, new Point(x, y), new Point(x + speckle_size - 1, y + speckle_size - 1), tape, -1);
+        }
+
+        if (motion_blur > 1)
+        {
+            if (blur_size != motion_blur)
+            {
+                blur_kernel.create(1, motion_blur, CvType.CV_32F);
+                blur_kernel.setTo(new Scalar(1.0 / motion_blur));
+                blur_size = motion_blur;
+            }
+            Imgproc.filter2D(frame, frame, -1, blur_kernel);
+        }
+
+        if (gradient > 0)
+        {
+            if (gradient_size != gradient)
+            {
+                gradient_image.create(height, width, CvType.CV_8UC3);
+                for (int x=0; x<width; ++x)
+                {
+                    final Mat column = gradient_image.colRange(x, x+1);
+                    column.setTo(new Scalar(gradient * x / width, gradient * x / width, gradient * x / width));
+                    column.release();
+                }
+                gradient_size = gradient;
+            }
+            Core.subtract(frame, gradient_image, frame);
+        }
+
+        if (noise > 0)
+        {
+            // Add noise in 16 bit, then saturate back to 8 bit
+            frame.convertTo(wide, CvType.CV_16SC3);
+            noise_image.create(height, width, CvType.CV_16SC3);
+            Core.randn(noise_image, 0, noise);
+            Core.add(wide, noise_image, wide);
+            wide.convertTo(frame, CvType.CV_8UC3);
+        }
+    }
+}
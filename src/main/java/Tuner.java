@@ -0,0 +1,340 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.wpi.cscore.CameraServerCvJNI;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/** Offline tuner for the {@link NickelDimelightPipeline} settings
+ *
+ *  Usage: Tuner directory [tolerance in pixels]
+ *
+ *  The directory holds recorded frames and a "labels.txt" with one line per frame:
+ *  <pre>
+ *  # File name, center x and y of target in pixels, or '-' if there's no target
+ *  frame001.png 160 80
+ *  frame002.png -
+ *  </pre>
+ *
+ *  Runs the pipeline steps on all frames for every combination of
+ *  blur, HSV limits and contour filter limits, spread over all cores.
+ *  SatMax and ValMax stay at 255 and AreaMax at the image size,
+ *  since the bright, saturated target is rarely limited from above.
+ *  The other limits are swept, see the values below.
+ *  A frame is detected correctly when the target center is within the tolerance,
+ *  or when nothing is found on a frame without target.
+ *  Prints the Pareto front of accuracy versus processing time,
+ *  i.e. the settings where higher accuracy costs more time.
+ *  Columns are named like the dashboard entries.
+ *
+ *  Time per frame is measured for preparing, thresholding, finding contours
+ *  and filtering them with each shape setting.
+ *  Like in the pipeline, the circularity, which needs the perimeter,
+ *  only costs time for settings with a CircularityMin.
+ *  Tighter HSV limits leave fewer contours, and those are cheaper to filter.
+ */
+public class Tuner
+{
+    /** Values to try. Blur 1 means no blur */
+    private static final int[] BLUR = { 1, 4, 8 };
+    private static final double[] HUE_MIN = { 45, 55, 65 }, HUE_MAX = { 85, 95, 105 },
+                                  SAT_MIN = { 30, 80, 130 }, VAL_MIN = { 50, 100, 150 };
+    private static final double[] AREA_MIN = { 0, 20, 50, 100 };
+    private static final double[][] ASPECT = { { 0, 20 }, { 1, 8 }, { 1.5, 4 } };
+    private static final double[] FULLNESS_MIN = { 0, 40, 60 }, FULLNESS_MAX = { 100, 90 };
+    private static final double[] CIRCULARITY_MIN = { 0, 0.3 };
+
+    /** Number of HSV limit combinations for each blur */
+    private static final int HSV_COUNT = HUE_MIN.length * HUE_MAX.length * SAT_MIN.length * VAL_MIN.length;
+
+    /** Number of threshold settings (blur, HSV) and shape settings (area, aspect, ..) */
+    private static final int THRESHOLDS = BLUR.length * HSV_COUNT,
+                             SHAPES = AREA_MIN.length * ASPECT.length * FULLNESS_MIN.length *
+                                      FULLNESS_MAX.length * CIRCULARITY_MIN.length;
+
+    /** Labeled frame */
+    private static class Sample
+    {
+        final File file;
+        final boolean target;
+        final int x, y;
+
+        Sample(final File file, final boolean target, final int x, final int y)
+        {
+            this.file = file;
+            this.target = target;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /** Result for one frame */
+    private static class Result
+    {
+        /** Correct detection for each threshold * SHAPES + shape */
+        final boolean[] correct = new boolean[THRESHOLDS * SHAPES];
+
+        /** Nanoseconds for each threshold * SHAPES + shape */
+        final long[] nanos = new long[THRESHOLDS * SHAPES];
+    }
+
+    /** Settings and their score */
+    private static class Setting
+    {
+        final int threshold, shape;
+        final double accuracy, ms;
+
+        Setting(final int threshold, final int shape, final double accuracy, final double ms)
+        {
+            this.threshold = threshold;
+            this.shape = shape;
+            this.accuracy = accuracy;
+            this.ms = ms;
+        }
+    }
+
+    /** @param threshold Threshold index
+     *  @param hsv_min Set to minimum HSV
+     *  @param hsv_max Set to maximum HSV
+     *  @return Blur
+     */
+    private static int getThreshold(final int threshold, final Scalar hsv_min, final Scalar hsv_max)
+    {
+        int i = threshold % HSV_COUNT;
+        hsv_min.val[0] = HUE_MIN[i % HUE_MIN.length];  i /= HUE_MIN.length;
+        hsv_max.val[0] = HUE_MAX[i % HUE_MAX.length];  i /= HUE_MAX.length;
+        hsv_min.val[1] = SAT_MIN[i % SAT_MIN.length];  i /= SAT_MIN.length;
+        hsv_min.val[2] = VAL_MIN[i % VAL_MIN.length];
+        hsv_max.val[1] = hsv_max.val[2] = 255.0;
+        return BLUR[threshold / HSV_COUNT];
+    }
+
+    /** @param shape Shape index
+     *  @return area_min, aspect_min, aspect_max, fullness_min, circularity_min, fullness_max
+     */
+    private static double[] getShape(int shape)
+    {
+        final double[] limits = new double[6];
+        limits[0] = AREA_MIN[shape % AREA_MIN.length];                 shape /= AREA_MIN.length;
+        limits[1] = ASPECT[shape % ASPECT.length][0];
+        limits[2] = ASPECT[shape % ASPECT.length][1];                  shape /= ASPECT.length;
+        limits[3] = FULLNESS_MIN[shape % FULLNESS_MIN.length];         shape /= FULLNESS_MIN.length;
+        limits[5] = FULLNESS_MAX[shape % FULLNESS_MAX.length];         shape /= FULLNESS_MAX.length;
+        limits[4] = CIRCULARITY_MIN[shape % CIRCULARITY_MIN.length];
+        return limits;
+    }
+
+    /** @param directory Directory with "labels.txt"
+     *  @return Samples
+     */
+    private static List<Sample> readLabels(final File directory) throws Exception
+    {
+        final List<Sample> samples = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(directory, "labels.txt").toPath()))
+        {
+            line = line.trim();
+            if (line.isEmpty()  ||  line.startsWith("#"))
+                continue;
+            final String[] items = line.split("\\s+");
+            final File file = new File(directory, items[0]);
+            if (items.length >= 3)
+                samples.add(new Sample(file, true, Integer.parseInt(items[1]), Integer.parseInt(items[2])));
+            else
+                samples.add(new Sample(file, false, 0, 0));
+        }
+        return samples;
+    }
+
+    /** Run all settings on one frame
+     *  @param sample Labeled frame
+     *  @param tolerance Pixels
+     *  @return Result
+     */
+    private static Result evaluate(final Sample sample, final int tolerance)
+    {
+        final Result result = new Result();
+        final Mat frame = Imgcodecs.imread(sample.file.getPath());
+        if (frame.empty())
+            throw new IllegalArgumentException("Cannot read " + sample.file);
+
+        final Mat norm = new Mat(), blur = new Mat(), hsv = new Mat(), filt = new Mat(), tmp = new Mat();
+        final Scalar hsv_min = new Scalar(0, 0, 0), hsv_max = new Scalar(0, 0, 0);
+        final List<MatOfPoint> contours = new ArrayList<>();
+        final ContourInfo info = new ContourInfo();
+        final double[][] shapes = new double[SHAPES][];
+        for (int s=0; s<SHAPES; ++s)
+            shapes[s] = getShape(s);
+
+        long prepare = 0;
+        int last_blur = -1;
+        for (int t=0; t<THRESHOLDS; ++t)
+        {
+            final int blur_size = getThreshold(t, hsv_min, hsv_max);
+
+            // Same steps as FrameCache, but only when blur changes
+            if (blur_size != last_blur)
+            {
+                final long start = System.nanoTime();
+                Core.normalize(frame, norm, 0.0, 255.0, Core.NORM_MINMAX);
+                Imgproc.blur(norm, blur, new Size(blur_size, blur_size));
+                Imgproc.cvtColor(blur, hsv, Imgproc.COLOR_BGR2HSV);
+                prepare = System.nanoTime() - start;
+                last_blur = blur_size;
+            }
+
+            // Threshold and find contours
+            final long start = System.nanoTime();
+            Core.inRange(hsv, hsv_min, hsv_max, filt);
+            Imgproc.findContours(filt, contours, tmp, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+
+            // Shape info of each contour, used for all shape settings
+            final int count = contours.size();
+            final double[] area = new double[count], aspect = new double[count],
+                           fullness = new double[count], circularity = new double[count];
+            final int[] x = new int[count], y = new int[count];
+            for (int c=0; c<count; ++c)
+            {
+                info.set(contours.get(c));
+                final Rect bounds = info.bounds();
+                area[c] = info.area();
+                aspect[c] = info.aspect();
+                fullness[c] = info.fullness();
+                x[c] = bounds.x + bounds.width/2;
+                y[c] = bounds.y + bounds.height/2;
+            }
+            final long contour_nanos = prepare + System.nanoTime() - start;
+
+            // Circularity separately, only counted for shapes that use it
+            final long circularity_start = System.nanoTime();
+            for (int c=0; c<count; ++c)
+            {
+                info.set(contours.get(c));
+                circularity[c] = info.circularity();
+            }
+            final long circularity_nanos = System.nanoTime() - circularity_start;
+
+            // Like NickelDimelightPipeline.detect: Largest contour that passes all filters
+            for (int s=0; s<SHAPES; ++s)
+            {
+                final long filter_start = System.nanoTime();
+                final double[] limits = shapes[s];
+                double largest_area = limits[0];
+                int best = -1;
+                for (int c=0; c<count; ++c)
+                    if (area[c] >= largest_area  &&
+                        aspect[c] >= limits[1]  &&  aspect[c] <= limits[2]  &&
+                        fullness[c] >= limits[3]  &&  fullness[c] <= limits[5]  &&
+                        (limits[4] <= 0  ||  circularity[c] >= limits[4]))
+                    {
+                        largest_area = area[c];
+                        best = c;
+                    }
+                result.nanos[t*SHAPES + s] = contour_nanos + System.nanoTime() - filter_start +
+                                             (limits[4] > 0 ? circularity_nanos : 0);
+                result.correct[t*SHAPES + s] = sample.target
+                    ? best >= 0  &&  Math.abs(x[best] - sample.x) <= tolerance  &&  Math.abs(y[best] - sample.y) <= tolerance
+                    : best < 0;
+            }
+
+            for (MatOfPoint contour : contours)
+                contour.release();
+            contours.clear();
+        }
+
+        frame.release();
+        norm.release();
+        blur.release();
+        hsv.release();
+        filt.release();
+        tmp.release();
+        info.contour2f.release();
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage: Tuner directory [tolerance in pixels]");
+            return;
+        }
+        final File directory = new File(args[0]);
+        final int tolerance = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        CameraServerCvJNI.forceLoad();
+        // Parallelize over frames, not within OpenCV calls
+        Core.setNumThreads(1);
+
+        final List<Sample> samples = readLabels(directory);
+        final int cores = Runtime.getRuntime().availableProcessors();
+        System.out.format("%d frames, %d threshold x %d shape settings, %d threads\n",
+                          samples.size(), THRESHOLDS, SHAPES, cores);
+
+        final ExecutorService pool = Executors.newFixedThreadPool(cores);
+        final List<Future<Result>> futures = new ArrayList<>();
+        for (Sample sample : samples)
+            futures.add(pool.submit(() -> evaluate(sample, tolerance)));
+
+        final int[] correct = new int[THRESHOLDS * SHAPES];
+        final long[] nanos = new long[THRESHOLDS * SHAPES];
+        for (Future<Result> future : futures)
+        {
+            final Result result = future.get();
+            for (int i=0; i<correct.length; ++i)
+            {
+                if (result.correct[i])
+                    ++correct[i];
+                nanos[i] += result.nanos[i];
+            }
+        }
+        pool.shutdown();
+
+        // Pareto front: Sort by time, then keep each setting that's more accurate than all faster ones
+        final List<Setting> settings = new ArrayList<>();
+        for (int t=0; t<THRESHOLDS; ++t)
+            for (int s=0; s<SHAPES; ++s)
+                settings.add(new Setting(t, s,
+                                         100.0 * correct[t*SHAPES + s] / samples.size(),
+                                         nanos[t*SHAPES + s] / 1e6 / samples.size()));
+        settings.sort(Comparator.comparingDouble((Setting s) -> s.ms)
+                                .thenComparing(Comparator.comparingDouble((Setting s) -> s.accuracy).reversed()));
+
+        System.out.println("SatMax, ValMax: 255, AreaMax: image size");
+        System.out.println("Accuracy%   ms/frame  Blur  HueMin HueMax SatMin ValMin  AreaMin AspectMin AspectMax FullnessMin FullnessMax CircularityMin");
+        final Scalar hsv_min = new Scalar(0, 0, 0), hsv_max = new Scalar(0, 0, 0);
+        double best = -1;
+        for (Setting setting : settings)
+        {
+            if (setting.accuracy <= best)
+                continue;
+            best = setting.accuracy;
+            final int blur = getThreshold(setting.threshold, hsv_min, hsv_max);
+            final double[] shape = getShape(setting.shape);
+            System.out.format("%8.1f %10.2f %5d %7.0f %6.0f %6.0f %6.0f %8.0f %9.1f %9.1f %11.0f %11.0f %14.2f\n",
+                              setting.accuracy, setting.ms, blur,
+                              hsv_min.val[0], hsv_max.val[0], hsv_min.val[1], hsv_min.val[2],
+                              shape[0], shape[1], shape[2], shape[3], shape[5], shape[4]);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,71 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CameraServerJNI;
+import edu.wpi.cscore.UsbCamera;
+import edu.wpi.cscore.VideoProperty;
+
+/** {@link CameraBackend} for a {@link UsbCamera} */
+public class UsbCameraBackend implements CameraBackend
+{
+    private final UsbCamera camera;
+
+    public UsbCameraBackend(final UsbCamera camera)
+    {
+        this.camera = camera;
+    }
+
+    @Override
+    public void setBrightness(final int brightness)
+    {
+        camera.setBrightness(brightness);
+    }
+
+    @Override
+    public void setWhiteBalanceManual(final int temperature)
+    {
+        camera.setWhiteBalanceManual(temperature);
+    }
+
+    @Override
+    public void setExposureAuto()
+    {
+        camera.setExposureAuto();
+    }
+
+    @Override
+    public void setExposureManual(final int exposure)
+    {
+        camera.setExposureManual(exposure);
+    }
+
+    @Override
+    public void setProperty(final String name, final int value)
+    {
+        // Not all cameras have all properties
+        final VideoProperty property = camera.getProperty(name);
+        if (property.getKind() == VideoProperty.Kind.kNone)
+            System.out.println("Camera has no property '" + name + "'");
+        else
+            property.set(value);
+    }
+
+    @Override
+    public long getLastFrameTime()
+    {
+        return camera.getLastFrameTime();
+    }
+
+    @Override
+    public void reopen()
+    {
+        // Setting the path closes the device and connects again,
+        // keeping sinks, video mode and cached properties.
+        // UsbCamera.setPath() is not public, so call JNI
+        CameraServerJNI.setUsbCameraPath(camera.getHandle(), camera.getPath());
+    }
+}
@@ -0,0 +1,75 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.List;
+
+import frc.robot.camera.SharedMemoryServer;
+import frc.robot.camera.UDPServer;
+import frc.robot.camera.VisionData;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+/** Transports that send pipeline results off the vision thread
+ *
+ *  UDP to the RIO, shared memory for processes on the Pi,
+ *  and the debug {@link MaskStream}.
+ *  They use fixed ports and files, so create one sender per process
+ *  and pass it to the pipeline that should report its results.
+ *  Tests and other detectors use {@link #NONE}.
+ */
+public class VisionSender
+{
+    /** Sender that drops everything */
+    public static final VisionSender NONE = new VisionSender(null, null, null);
+
+    private final UDPServer udp_server;
+    private final SharedMemoryServer shm_server;
+    private final MaskStream mask_stream;
+
+    /** Open UDP server, shared memory and mask stream on their default port and file */
+    public VisionSender() throws Exception
+    {
+        this(new UDPServer(), new SharedMemoryServer(), new MaskStream());
+    }
+
+    /** @param udp_server UDP server or <code>null</code>
+     *  @param shm_server Shared memory server or <code>null</code>
+     *  @param mask_stream Mask stream or <code>null</code>
+     */
+    public VisionSender(final UDPServer udp_server, final SharedMemoryServer shm_server, final MaskStream mask_stream)
+    {
+        this.udp_server = udp_server;
+        this.shm_server = shm_server;
+        this.mask_stream = mask_stream;
+    }
+
+    /** @param data Vision data to send via UDP and shared memory */
+    public void send(final VisionData data)
+    {
+        if (udp_server != null)
+            udp_server.send(data);
+        if (shm_server != null)
+            shm_server.send(data);
+    }
+
+    /** @return Should a mask be sent now? */
+    public boolean isMaskActive()
+    {
+        return mask_stream != null  &&  mask_stream.isActive();
+    }
+
+    /** @param mask Binary mask, 8 bit, 1 channel
+     *  @param contours Contours found in mask
+     *  @param selected Index of selected contour, -1 for none
+     */
+    public void sendMask(final Mat mask, final List<MatOfPoint> contours, final int selected)
+    {
+        if (mask_stream != null)
+            mask_stream.send(mask, contours, selected);
+    }
+}
@@ -0,0 +1,179 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.nio.ByteBuffer;
+
+import org.opencv.core.Scalar;
+
+/** Classify YUYV pixels as 'target' or 'not' via HSV limits
+ *
+ *  Instead of converting each frame YUYV -> BGR -> HSV and then
+ *  checking the HSV range, a table tells for each YUV value
+ *  if it's inside the HSV range.
+ *  The table is only re-computed when the HSV limits change.
+ *
+ *  To keep the table small (256 kB), it uses the upper 6 bits
+ *  of Y, U and V.
+ */
+public class YUVClassifier
+{
+    /** Bits per channel used for table lookup */
+    private static final int BITS = 6;
+    private static final int SHIFT = 8 - BITS;
+
+    /** Table [Y, U, V] -> 0 or 255 */
+    private final byte[] table = new byte[1 << (3*BITS)];
+
+    /** HSV limits used for the current table */
+    private final double[] limits = new double[6];
+
+    /** Temporary values for building the table */
+    private final int[] bgr = new int[3], hsv = new int[3];
+
+    public YUVClassifier()
+    {
+        // Force initial table update
+        limits[0] = -1;
+    }
+
+    /** Update table for new HSV limits
+     *
+     *  Just like the OpenCV HSV check in NickelDimelightPipeline,
+     *  hue_min > hue_max selects a range that wraps around 180.
+     *
+     *  @param hsv_min Minimum hue (0-180), saturation, value
+     *  @param hsv_max Maximum hue (0-180), saturation, value
+     *  @return <code>true</code> if table was updated
+     */
+    public boolean update(final Scalar hsv_min, final Scalar hsv_max)
+    {
+        if (limits[0] == hsv_min.val[0]  &&  limits[1] == hsv_min.val[1]  &&  limits[2] == hsv_min.val[2]  &&
+            limits[3] == hsv_max.val[0]  &&  limits[4] == hsv_max.val[1]  &&  limits[5] == hsv_max.val[2])
+            return false;
+        for (int i=0; i<3; ++i)
+        {
+            limits[i] = hsv_min.val[i];
+            limits[i+3] = hsv_max.val[i];
+        }
+
+        final boolean wrap = limits[0] > limits[3];
+        final int levels = 1 << BITS;
+        // Use the center of each quantized range
+        final int center = 1 << (SHIFT-1);
+        int i = 0;
+        for (int y=0; y<levels; ++y)
+            for (int u=0; u<levels; ++u)
+                for (int v=0; v<levels; ++v)
+                {
+                    yuv2bgr((y << SHIFT) + center, (u << SHIFT) + center, (v << SHIFT) + center, bgr);
+                    bgr2hsv(bgr[0], bgr[1], bgr[2], hsv);
+                    final boolean hue_ok = wrap
+                        ? (hsv[0] >= limits[0]  ||  hsv[0] <= limits[3])
+                        : (hsv[0] >= limits[0]  &&  hsv[0] <= limits[3]);
+                    final boolean ok = hue_ok &&
+                                       hsv[1] >= limits[1]  &&  hsv[1] <= limits[4]  &&
+                                       hsv[2] >= limits[2]  &&  hsv[2] <= limits[5];
+                    table[i++] = ok ? (byte) 255 : 0;
+                }
+        return true;
+    }
+
+    /** @param yuyv Frame in YUYV format: Y0 U Y1 V for each pair of pixels
+     *  @param mask Mask to set to 255 for pixels within HSV limits, else 0
+     *  @param pixels Number of pixels
+     */
+    public void classify(final ByteBuffer yuyv, final byte[] mask, final int pixels)
+    {
+        for (int p=0; p<pixels; p+=2)
+        {
+            final int i = 2*p;
+            final int y0 = yuyv.get(i)   & 0xFF;
+            final int u  = yuyv.get(i+1) & 0xFF;
+            final int y1 = yuyv.get(i+2) & 0xFF;
+            final int v  = yuyv.get(i+3) & 0xFF;
+            final int uv = ((u >> SHIFT) << BITS) | (v >> SHIFT);
+            mask[p]   = table[((y0 >> SHIFT) << (2*BITS)) | uv];
+            mask[p+1] = table[((y1 >> SHIFT) << (2*BITS)) | uv];
+        }
+    }
+
+    /** Convert YUV to BGR like OpenCV's COLOR_YUV2BGR_YUYV (BT.601, video range)
+     *  @param y Luma
+     *  @param u Blue difference chroma
+     *  @param v Red difference chroma
+     *  @param bgr Resulting blue, green, red (0-255)
+     */
+    public static void yuv2bgr(final int y, final int u, final int v, final int[] bgr)
+    {
+        final double c = 1.164 * Math.max(0, y - 16);
+        final double d = u - 128;
+        final double e = v - 128;
+        bgr[0] = clamp(c + 2.018*d);
+        bgr[1] = clamp(c - 0.391*d - 0.813*e);
+        bgr[2] = clamp(c + 1.596*e);
+    }
+
+    /** Convert BGR to HSV like OpenCV's COLOR_BGR2HSV for 8 bit images
+     *  @param b Blue (0-255)
+     *  @param g Green (0-255)
+     *  @param r Red (0-255)
+     *  @param hsv Resulting hue (0-180), saturation, value (0-255)
+     */
+    public static void bgr2hsv(final int b, final int g, final int r, final int[] hsv)
+    {
+        final int max = Math.max(b, Math.max(g, r));
+        final int min = Math.min(b, Math.min(g, r));
+        final int diff = max - min;
+        double h = 0.0;
+        if (diff > 0)
+        {
+            if (max == r)
+                h = 60.0*(g - b)/diff;
+            else if (max == g)
+                h = 120.0 + 60.0*(b - r)/diff;
+            else
+                h = 240.0 + 60.0*(r - g)/diff;
+            if (h < 0)
+                h += 360.0;
+        }
+        hsv[0] = clamp(h/2);
+        hsv[1] = max > 0 ? clamp(255.0*diff/max) : 0;
+        hsv[2] = max;
+    }
+
+    private static int clamp(final double value)
+    {
+        return (int) Math.max(0, Math.min(Math.round(value), 255));
+    }
+
+    /** Test/demo */
+    public static void main(String[] args)
+    {
+        final YUVClassifier classifier = new YUVClassifier();
+        long start = System.nanoTime();
+        classifier.update(new Scalar(55, 30, 50), new Scalar(95, 255, 255));
+        System.out.println("Table update: " + (System.nanoTime() - start)/1000000 + " ms");
+
+        final int[] bgr = new int[3], hsv = new int[3];
+        yuv2bgr(145, 54, 34, bgr);
+        bgr2hsv(bgr[0], bgr[1], bgr[2], hsv);
+        System.out.println("YUV 145, 54, 34 -> BGR " + bgr[0] + " " + bgr[1] + " " + bgr[2] +
+                           " -> HSV " + hsv[0] + " " + hsv[1] + " " + hsv[2]);
+
+        final int width = 320, height = 240;
+        final ByteBuffer yuyv = ByteBuffer.allocateDirect(width*height*2);
+        for (int i=0; i<width*height/2; ++i)
+            yuyv.put((byte)145).put((byte)54).put((byte)145).put((byte)34);
+        final byte[] mask = new byte[width*height];
+        for (int run=0; run<5; ++run)
+        {
+            start = System.nanoTime();
+            classifier.classify(yuyv, mask, width*height);
+            System.out.println("Classify: " + (System.nanoTime() - start)/1000 + " us, mask[0] = " + (mask[0] & 0xFF));
+        }
+    }
+}
@@ -0,0 +1,19 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.nio.ByteBuffer;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+/** Pipeline that can handle the raw YUYV camera frame */
+public interface YUYVPipeline extends VisionPipeline
+{
+    /** @param yuyv Frame in YUYV format, Y0 U Y1 V for each pair of pixels
+     *  @param frame_time Time when cscore grabbed the frame, microseconds of WPIUtilJNI.now(), 0 if not known
+     */
+    public void process(ByteBuffer yuyv, long frame_time);
+}
@@ -0,0 +1,83 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.cscore.VideoMode.PixelFormat;
+import edu.wpi.cscore.raw.RawFrame;
+import edu.wpi.cscore.raw.RawSink;
+import edu.wpi.first.vision.VisionRunner;
+
+/** Replacement for the VisionThread that passes raw YUYV frames to the pipeline
+ *
+ *  The VisionThread uses a CvSink, which has cscore convert
+ *  each frame to BGR.
+ *  A RawSink that requests YUYV receives the camera's native frames as is.
+ */
+public class YUYVThread<P extends YUYVPipeline> extends Thread
+{
+    /** RawSink hides 'grabFrame', so make it accessible */
+    private static class YUYVSink extends RawSink
+    {
+        YUYVSink(final String name)
+        {
+            super(name);
+        }
+
+        long grab(final RawFrame frame)
+        {
+            return grabFrame(frame);
+        }
+    }
+
+    private final YUYVSink sink = new YUYVSink("YUYVSink");
+    private final RawFrame frame = new RawFrame();
+    private final P pipeline;
+    private final VisionRunner.Listener<? super P> listener;
+    private volatile Runnable error_handler = () -> {};
+
+    /** @param camera Camera configured for YUYV
+     *  @param width Image width
+     *  @param height Image height
+     *  @param pipeline Pipeline to call with each frame
+     *  @param listener Listener to call after each frame
+     */
+    public YUYVThread(final VideoSource camera, final int width, final int height,
+                      final P pipeline, final VisionRunner.Listener<? super P> listener)
+    {
+        super("YUYVThread");
+        setDaemon(true);
+        this.pipeline = pipeline;
+        this.listener = listener;
+        frame.setWidth(width);
+        frame.setHeight(height);
+        frame.setPixelFormat(PixelFormat.kYUYV.getValue());
+        sink.setSource(camera);
+    }
+
+    /** @param handler Called when grabbing a frame fails */
+    public void setErrorHandler(final Runnable handler)
+    {
+        error_handler = handler;
+    }
+
+    @Override
+    public void run()
+    {
+        while (! isInterrupted())
+        {
+            final long frame_time = sink.grab(frame);
+            if (frame_time == 0)
+            {
+                System.out.println("YUYVThread error: " + sink.getError());
+                error_handler.run();
+                continue;
+            }
+            pipeline.process(frame.getDataByteBuffer(), frame_time);
+            listener.copyPipelineOutputs(pipeline);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+package frc.robot.camera;
+
+import java.nio.ByteBuffer;
+
+/** NTP-style estimate of the clock offset between Pi and RIO
+ *
+ *  The client (RIO) sends a 'ping' with its time t0 to the server (Pi),
+ *  on the same UDP sockets used for the vision data.
+ *  The server replies with t0, its receive time t1 and its reply time t2.
+ *  When the client receives the reply at t3,
+ *
+ *     round trip = (t3 - t0) - (t2 - t1)
+ *     offset     = ((t1 - t0) + (t2 - t3)) / 2
+ *
+ *  The offset is server clock minus client clock,
+ *  assuming the network delay is the same in both directions.
+ *  Of the last few samples, the one with the shortest round trip is used
+ *  because it suffered the least queuing delay.
+ *
+ *  Times are microseconds from {@link #now()}, based on System.nanoTime(),
+ *  so changes to the wall clock don't matter.
+ *  Processes on the same Linux computer share that clock, see {@link SharedMemoryClient}.
+ */
+public class ClockSync
+{
+    /** Marks clock packets, "CLKP" for ping, "CLKR" for reply */
+    private static final int PING = 0x434C4B50, REPLY = 0x434C4B52;
+
+    /** Size of ping and reply in buffer bytes */
+    public static final int BYTE_SIZE = Integer.BYTES + 3*Long.BYTES;
+
+    /** Number of samples from which the best is used */
+    private static final int SAMPLES = 8;
+
+    private final long[] offsets = new long[SAMPLES], round_trips = new long[SAMPLES];
+    private int samples = 0;
+
+    /** Current estimate, round_trip < 0 while not synchronized */
+    private volatile long offset = 0, round_trip = -1;
+
+    /** @return Current time in microseconds, only meaningful relative to other calls */
+    public static long now()
+    {
+        return System.nanoTime() / 1000;
+    }
+
+    /** @param micros Time from {@link #now()} on this computer
+     *  @return Corresponding System.currentTimeMillis()
+     */
+    public static long toMillis(final long micros)
+    {
+        return System.currentTimeMillis() - (now() - micros) / 1000;
+    }
+
+    /** @param buffer Buffer into which a ping with the current time is written */
+    public static void encodePing(final ByteBuffer buffer)
+    {
+        buffer.putInt(PING);
+        buffer.putLong(now());
+        buffer.putLong(0);
+        buffer.putLong(0);
+    }
+
+    /** @param buffer Received packet, position is not changed
+     *  @return Is it a ping or reply, not vision data?
+     */
+    public static boolean isClockPacket(final ByteBuffer buffer)
+    {
+        if (buffer.remaining() != BYTE_SIZE)
+            return false;
+        final int type = buffer.getInt(buffer.position());
+        return type == PING  ||  type == REPLY;
+    }
+
+    /** Server: Turn received ping into reply
+     *
+     *  @param buffer Received packet, will be changed into reply
+     *  @param received {@link #now()} when packet was received
+     *  @return <code>true</code> if buffer now holds reply that should be sent back
+     */
+    public static boolean reply(final ByteBuffer buffer, final long received)
+    {
+        final int start = buffer.position();
+        if (buffer.remaining() != BYTE_SIZE  ||  buffer.getInt(start) != PING)
+            return false;
+        buffer.putInt(start, REPLY);
+        buffer.putLong(start + Integer.BYTES + Long.BYTES, received);
+        buffer.putLong(start + Integer.BYTES + 2*Long.BYTES, now());
+        return true;
+    }
+
+    /** Client: Update estimate from received reply
+     *
+     *  @param buffer Received packet
+     *  @param received {@link #now()} when packet was received
+     *  @return <code>true</code> if buffer held a reply
+     */
+    public synchronized boolean update(final ByteBuffer buffer, final long received)
+    {
+        if (buffer.remaining() != BYTE_SIZE  ||  buffer.getInt() != REPLY)
+            return false;
+        final long t0 = buffer.getLong();
+        final long t1 = buffer.getLong();
+        final long t2 = buffer.getLong();
+        final long t3 = received;
+
+        final long trip = (t3 - t0) - (t2 - t1);
+        // Ignore replies that make no sense, for example
+        // to a ping sent before the server restarted
+        if (trip < 0)
+            return true;
+        offsets[samples % SAMPLES] = ((t1 - t0) + (t2 - t3)) / 2;
+        round_trips[samples % SAMPLES] = trip;
+        ++samples;
+
+        int best = 0;
+        for (int i=1; i<Math.min(samples, SAMPLES); ++i)
+            if (round_trips[i] < round_trips[best])
+                best = i;
+        offset = offsets[best];
+        round_trip = round_trips[best];
+        return true;
+    }
+
+    /** @return Number of replies received so far */
+    public synchronized int getSamples()
+    {
+        return samples;
+    }
+
+    /** @return Has at least one reply been received? */
+    public boolean isSynchronized()
+    {
+        return round_trip >= 0;
+    }
+
+    /** @return Server clock minus client clock in microseconds */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /** @return Round trip time in microseconds of the sample used for the offset, -1 if not known */
+    public long getRoundTrip()
+    {
+        return round_trip;
+    }
+
+    /** @param remote Time from server's {@link #now()}
+     *  @return Same time in client's {@link #now()}
+     */
+    public long toLocal(final long remote)
+    {
+        return remote - offset;
+    }
+
+    @Override
+    public String toString()
+    {
+        return isSynchronized()
+             ? String.format("Offset %.3f ms, round trip %.3f ms", offset / 1000.0, round_trip / 1000.0)
+             : "Not synchronized";
+    }
+}
@@ -0,0 +1,138 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+package frc.robot.camera;
+
+import java.io.File;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import static frc.robot.camera.SharedMemoryServer.*;
+
+/** Read vision info from shared memory
+ *
+ *  See {@link SharedMemoryServer} for the memory layout.
+ *  Any number of clients may read at the same time.
+ *
+ *  The 'capture' time written by the server is used without {@link ClockSync}.
+ *  This assumes that System.nanoTime() has the same origin in all JVMs on the Pi.
+ *  Java does not promise that, but on Linux it reads CLOCK_MONOTONIC,
+ *  which is shared by all processes since boot.
+ */
+public class SharedMemoryClient
+{
+    /** Attempts to read consistent data before giving up */
+    private static final int RETRIES = 100;
+
+    private final FileChannel file;
+    private final MappedByteBuffer buffer;
+
+    /** Separate view of buffer for reading the data */
+    private final ByteBuffer view;
+
+    /** Sequence of the last data that was read, or that was there on open */
+    private long last;
+
+    /** Create client for default file */
+    public SharedMemoryClient() throws Exception
+    {
+        this(DEFAULT_FILE);
+    }
+
+    public SharedMemoryClient(final File name) throws Exception
+    {
+        file = FileChannel.open(name.toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // Map read/write so client may start before the server created the file
+        buffer = file.map(MapMode.READ_WRITE, 0, SIZE);
+        view = buffer.duplicate();
+        // Data left over from an earlier server run is not new
+        last = (long) sequence_handle.getVolatile(buffer, SEQUENCE) & ~1L;
+        System.out.println("Shared memory client on " + name);
+    }
+
+    /** Check for an update, does not block
+     *
+     *  If the writer is busy for all retries,
+     *  for example because it died in the middle of an update,
+     *  this reports no new data.
+     *
+     *  @param data Data to update with latest info
+     *  @return <code>true</code> if there was new data
+     */
+    public boolean poll(final VisionData data)
+    {
+        for (int attempt=0; attempt<RETRIES; ++attempt)
+        {
+            final long before = (long) sequence_handle.getAcquire(buffer, SEQUENCE);
+            if (before == last)
+                return false;
+            // Writer is busy?
+            if ((before & 1) != 0)
+            {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            view.position(DATA);
+            view.limit(SIZE);
+            final boolean decoded = data.decode(view);
+            VarHandle.loadLoadFence();
+
+            // Did writer change the data while we read it?
+            final long after = (long) sequence_handle.getOpaque(buffer, SEQUENCE);
+            if (before != after)
+                continue;
+            // Written by a server with a different version?
+            last = before;
+            if (! decoded)
+                return false;
+
+            // Same computer, same CLOCK_MONOTONIC, see class doc
+            data.millisec = ClockSync.toMillis(data.capture);
+            return true;
+        }
+        return false;
+    }
+
+    /** Wait for an update from camera
+     * 
+     *  @return Data received from camera
+     */
+    public VisionData read()
+    {
+        final VisionData data = new VisionData();
+        while (! poll(data))
+            LockSupport.parkNanos(100000);
+        return data;
+    }
+
+    /** Close the file */
+    public void close() throws Exception
+    {
+        file.close();
+    }
+
+    /** Test/demo 
+     *  @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.out.println("Running shared memory client, stop via 'Ctrl-c'");
+        final SharedMemoryClient client = new SharedMemoryClient();
+        final long start = System.currentTimeMillis();
+        while (true)
+        {
+            final VisionData data = client.read();
+            System.out.println((data.millisec - start) + " " + data);
+        }    
+    }
+}
@@ -0,0 +1,107 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+package frc.robot.camera;
+
+import java.io.File;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+
+/** Publish vision data via shared memory
+ *
+ *  For processes on the same Pi (logger, dashboard bridge, ..)
+ *  that would otherwise receive the UDP broadcasts.
+ *
+ *  Memory-mapped file layout, all big endian like the UDP packets:
+ *  <pre>
+ *  0: long sequence, odd while being updated
+ *  8: VisionData, with 'capture' time for the age of the data
+ *  </pre>
+ *
+ *  The writer never waits for readers, and readers never
+ *  block the writer. A reader that sees an odd sequence,
+ *  or a sequence that changed while it was reading, retries
+ *  a few times, then gives up until the next poll.
+ */
+public class SharedMemoryServer
+{
+    /** Default file, in RAM disk when available */
+    public static final File DEFAULT_FILE = new File(new File("/dev/shm").isDirectory()
+                                                     ? "/dev/shm"
+                                                     : System.getProperty("java.io.tmpdir"),
+                                                     "frc2393_vision");
+
+    /** Offsets in shared memory */
+    static final int SEQUENCE = 0, DATA = 8, SIZE = DATA + VisionData.BYTE_SIZE;
+
+    /** Access to the sequence with memory ordering, same byte order as the buffer */
+    static final VarHandle sequence_handle = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private final FileChannel file;
+    private final MappedByteBuffer buffer;
+    private long sequence;
+
+    /** Create server with default file */
+    public SharedMemoryServer() throws Exception
+    {
+        this(DEFAULT_FILE);
+    }
+
+    public SharedMemoryServer(final File name) throws Exception
+    {
+        file = FileChannel.open(name.toPath(),
+                                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = file.map(MapMode.READ_WRITE, 0, SIZE);
+        // Continue sequence of a previous run so readers see the change
+        sequence = (long) sequence_handle.getVolatile(buffer, SEQUENCE) & ~1L;
+        System.out.println("Shared memory server on " + name);
+    }
+
+    /** @param data Data to publish */
+    public synchronized void send(final VisionData data)
+    {
+        // Odd: Update in progress
+        sequence_handle.setOpaque(buffer, SEQUENCE, ++sequence);
+        VarHandle.storeStoreFence();
+
+        buffer.position(DATA);
+        data.encode(buffer);
+
+        // Even: Data is consistent
+        sequence_handle.setRelease(buffer, SEQUENCE, ++sequence);
+    }
+
+    /** Close the file */
+    public void close() throws Exception
+    {
+        file.close();
+    }
+
+    /** Test/demo 
+     *  @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        System.out.println("Running shared memory server, stop via 'Ctrl-C'");
+        final SharedMemoryServer server = new SharedMemoryServer();
+        final VisionData data = new VisionData();
+        data.clear();
+        while (true)
+        {
+            Thread.sleep(1000);
+            
+            data.distance += 1;
+            data.direction += 2;
+            data.capture = ClockSync.now();
+            server.send(data);
+        }   
+    }
+}
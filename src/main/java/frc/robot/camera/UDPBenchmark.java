@@ -0,0 +1,302 @@
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2022 FIRST Team 2393. All Rights Reserved.                   */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+package frc.robot.camera;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/** Latency and throughput benchmark for UDPServer -> UDPClient over loopback
+ *
+ *  Measures encode, send, receive, decode of {@link VisionData}
+ *  at increasing packet rates.
+ *  Optionally, a relay between server and client drops,
+ *  delays and reorders packets.
+ *
+ *  The 'direction' of each packet is used as its sequence number,
+ *  so the packet format is the same as on the robot.
+ *  Send times are kept in an AtomicLongArray so that the
+ *  receiver thread sees what the sending thread wrote.
+ */
+public class UDPBenchmark
+{
+    /** Ports for client and relay. 2022 game manual R704: 5800-5810 open for Team use */
+    private static final int CLIENT_PORT = 5808, RELAY_PORT = 5809;
+
+    /** Relay that forwards packets with optional loss, delay, reordering */
+    private static class Relay extends Thread
+    {
+        private final DatagramChannel udp;
+        private final InetSocketAddress target;
+        private final double loss, reorder;
+        private final long delay_us;
+        private final Random random = new Random(2393);
+        private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+
+        /** @param loss Fraction of packets to drop, 0..1
+         *  @param reorder Fraction of packets to hold back so they arrive after later packets, 0..1
+         *  @param delay_ms Delay for each packet
+         */
+        Relay(final InetSocketAddress target, final double loss, final double reorder, final double delay_ms) throws Exception
+        {
+            super("Relay");
+            setDaemon(true);
+            this.target = target;
+            this.loss = loss;
+            this.reorder = reorder;
+            delay_us = Math.round(delay_ms * 1000);
+            udp = DatagramChannel.open(StandardProtocolFamily.INET);
+            udp.socket().setReuseAddress(true);
+            udp.bind(new InetSocketAddress("127.0.0.1", RELAY_PORT));
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                final ByteBuffer buffer = ByteBuffer.allocate(Math.max(VisionData.BYTE_SIZE, ClockSync.BYTE_SIZE));
+                while (true)
+                {
+                    buffer.clear();
+                    udp.receive(buffer);
+                    buffer.flip();
+                    if (random.nextDouble() < loss)
+                        continue;
+                    // Held back packets are overtaken by at least the next ~1 ms of packets
+                    final long wait = delay_us + (random.nextDouble() < reorder ? 1000 : 0);
+                    if (wait <= 0)
+                        udp.send(buffer, target);
+                    else
+                    {
+                        final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+                        copy.put(buffer).flip();
+                        timer.schedule(() -> forward(copy), wait, TimeUnit.MICROSECONDS);
+                    }
+                }
+            }
+            catch (ClosedChannelException ex)
+            {
+                // Done
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+            timer.shutdownNow();
+        }
+
+        private void forward(final ByteBuffer packet)
+        {
+            try
+            {
+                udp.send(packet, target);
+            }
+            catch (Exception ex)
+            {
+                // Ignore, relay was closed
+            }
+        }
+    }
+
+    /** Receives packets and records their latency */
+    private static class Receiver extends Thread
+    {
+        private final UDPClient client;
+        private final AtomicLongArray sent;
+        final long[] latency;
+        final AtomicInteger received = new AtomicInteger();
+        int out_of_order = 0, duplicates = 0;
+        long cpu_ns = 0;
+
+        Receiver(final UDPClient client, final AtomicLongArray sent)
+        {
+            super("Receiver");
+            this.client = client;
+            this.sent = sent;
+            latency = new long[sent.length()];
+            Arrays.fill(latency, -1);
+        }
+
+        @Override
+        public void run()
+        {
+            final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            final long start = bean.getCurrentThreadCpuTime();
+            int last = -1;
+            try
+            {
+                while (true)
+                {
+                    final VisionData data = client.read();
+                    final long now = System.nanoTime();
+                    final int seq = data.direction;
+                    if (seq < 0  ||  seq >= latency.length)
+                        continue;
+                    if (latency[seq] >= 0)
+                    {
+                        ++duplicates;
+                        continue;
+                    }
+                    latency[seq] = now - sent.get(seq);
+                    if (seq < last)
+                        ++out_of_order;
+                    last = seq;
+                    // Count in CPU time up to the last packet, not the wait for more
+                    cpu_ns = bean.getCurrentThreadCpuTime() - start;
+                    received.incrementAndGet();
+                }
+            }
+            catch (ClosedChannelException ex)
+            {
+                // Done
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    /** Result of one run */
+    private static class Result
+    {
+        int rate, sent, received, out_of_order;
+        double send_us, receive_us, p50_us, p90_us, p99_us, p999_us, max_us;
+
+        double loss()
+        {
+            return 100.0 * (sent - received) / sent;
+        }
+    }
+
+    /** Send packets at given rate, collect latency
+     *  @param rate Packets per second
+     *  @param packets Number of packets to send
+     */
+    private static Result run(final int rate, final int packets,
+                              final double loss, final double reorder, final double delay_ms) throws Exception
+    {
+        final boolean use_relay = loss > 0  ||  reorder > 0  ||  delay_ms > 0;
+        final InetSocketAddress client_addr = new InetSocketAddress("127.0.0.1", CLIENT_PORT);
+        final Relay relay = use_relay ? new Relay(client_addr, loss, reorder, delay_ms) : null;
+        final UDPClient client = new UDPClient(CLIENT_PORT);
+        final UDPServer server = new UDPServer(List.of(use_relay ? new InetSocketAddress("127.0.0.1", RELAY_PORT)
+                                                                 : client_addr));
+        final AtomicLongArray sent = new AtomicLongArray(packets);
+        final Receiver receiver = new Receiver(client, sent);
+        if (relay != null)
+            relay.start();
+        receiver.start();
+
+        final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        final VisionData data = new VisionData();
+        final long period = 1000000000L / rate;
+        final long cpu_start = bean.getCurrentThreadCpuTime();
+        final long start = System.nanoTime();
+        for (int seq=0; seq<packets; ++seq)
+        {
+            // Wait for the next slot
+            final long due = start + seq * period;
+            long now;
+            while ((now = System.nanoTime()) < due)
+                if (due - now > 100000)
+                    LockSupport.parkNanos(due - now - 50000);
+            data.direction = seq;
+            data.distance = -seq;
+            sent.set(seq, System.nanoTime());
+            server.send(data);
+        }
+        final long send_cpu = bean.getCurrentThreadCpuTime() - cpu_start;
+
+        // Wait for stragglers
+        final long deadline = System.currentTimeMillis() + 500 + Math.round(delay_ms) + 1;
+        while (receiver.received.get() < packets  &&  System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        client.close();
+        server.close();
+        receiver.join();
+        if (relay != null)
+        {
+            relay.udp.close();
+            relay.join();
+        }
+
+        final Result result = new Result();
+        result.rate = rate;
+        result.sent = packets;
+        result.received = receiver.received.get();
+        result.out_of_order = receiver.out_of_order;
+        result.send_us = send_cpu / 1000.0 / packets;
+        result.receive_us = result.received > 0 ? receiver.cpu_ns / 1000.0 / result.received : 0;
+
+        final long[] latency = Arrays.stream(receiver.latency).filter(l -> l >= 0).sorted().toArray();
+        if (latency.length > 0)
+        {
+            result.p50_us = percentile(latency, 0.50);
+            result.p90_us = percentile(latency, 0.90);
+            result.p99_us = percentile(latency, 0.99);
+            result.p999_us = percentile(latency, 0.999);
+            result.max_us = latency[latency.length-1] / 1000.0;
+        }
+        return result;
+    }
+
+    /** @return Percentile of sorted nanosecs in microsecs */
+    private static double percentile(final long[] sorted, final double fraction)
+    {
+        final int i = (int) Math.min(sorted.length-1, Math.round(fraction * (sorted.length-1)));
+        return sorted[i] / 1000.0;
+    }
+
+    /** Run benchmark
+     *
+     *  Arguments (all optional):
+     *  seconds per rate (1), loss percent (0), reorder percent (0), delay in ms (0)
+     */
+    public static void main(String[] args) throws Exception
+    {
+        final double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1.0;
+        final double loss    = args.length > 1 ? Double.parseDouble(args[1]) / 100.0 : 0.0;
+        final double reorder = args.length > 2 ? Double.parseDouble(args[2]) / 100.0 : 0.0;
+        final double delay   = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+        System.out.format("UDP loopback benchmark, %.1f sec per rate, loss %.1f%%, reorder %.1f%%, delay %.1f ms\n",
+                          seconds, 100*loss, 100*reorder, delay);
+
+        // Warm up JIT
+        run(10000, 20000, 0, 0, 0);
+
+        System.out.println("    Rate     Sent     Recv  Loss%  Reord  Send-us  Recv-us   p50-us   p90-us   p99-us p99.9-us   max-us");
+        int sustained = 0;
+        for (int rate : new int[] { 30, 100, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000 })
+        {
+            final int packets = (int) Math.max(10, rate * seconds);
+            final Result r = run(rate, packets, loss, reorder, delay);
+            System.out.format("%8d %8d %8d %6.2f %6d %8.2f %8.2f %8.1f %8.1f %8.1f %8.1f %8.1f\n",
+                              r.rate, r.sent, r.received, r.loss(), r.out_of_order,
+                              r.send_us, r.receive_us,
+                              r.p50_us, r.p90_us, r.p99_us, r.p999_us, r.max_us);
+            // Sustained if there's no more loss than what we injected
+            if (r.loss() <= 100*loss + 0.1)
+                sustained = rate;
+        }
+        System.out.println("Max. sustained rate: " + sustained + " packets/sec");
+    }
+}
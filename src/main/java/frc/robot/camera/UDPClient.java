@@ -7,6 +7,7 @@
 package frc.robot.camera;
 
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.net.StandardProtocolFamily;
 import java.nio.ByteBuffer;
 import java.nio.channels.DatagramChannel;
@@ -14,8 +15,17 @@ import java.nio.channels.DatagramChannel;
 /** Receive vision info via UDP */
 public class UDPClient
 {
+    /** Microseconds between clock pings, faster until there are a few samples */
+    private static final long PING_PERIOD = 1000000, INITIAL_PING_PERIOD = 100000;
+
     private final DatagramChannel udp;
-    private final ByteBuffer buffer = ByteBuffer.allocate(VisionData.BYTE_SIZE);
+    private final ByteBuffer buffer = ByteBuffer.allocate(Math.max(VisionData.BYTE_SIZE, ClockSync.BYTE_SIZE));
+    private final ByteBuffer ping = ByteBuffer.allocate(ClockSync.BYTE_SIZE);
+    private final ClockSync clock = new ClockSync();
+    private long last_ping = 0;
+
+    /** Was there a warning about packets of the wrong version? */
+    private boolean warned = false;
 
     /** Create client on default UDP port */
     public UDPClient() throws Exception
@@ -35,6 +45,9 @@ public class UDPClient
 
     /** Wait for an update from camera
      * 
+     *  Also pings the camera to synchronize clocks,
+     *  so 'millisec' of the returned data is the capture time.
+     *
      *  @return Data received from camera
      *  @throws Exception on error
      */
@@ -42,15 +55,58 @@ public class UDPClient
     {
         final VisionData data = new VisionData();
 
-        // Read <whatever> into buffer
-        // (blocks until we receive something)
-        buffer.clear();
-        udp.receive(buffer);
+        while (true)
+        {
+            // Read <whatever> into buffer
+            // (blocks until we receive something)
+            buffer.clear();
+            final SocketAddress sender = udp.receive(buffer);
+            final long received = ClockSync.now();
+            buffer.flip();
+
+            // Reply to our ping, or our own ping echoed by a relay?
+            if (ClockSync.isClockPacket(buffer))
+            {
+                clock.update(buffer, received);
+                continue;
+            }
+
+            // Assume that the buffer now contains vision data
+            if (! data.decode(buffer))
+            {
+                if (! warned)
+                    System.out.println("Ignoring vision data of " + buffer.limit() + " bytes from " + sender +
+                                       ", expected version " + VisionData.VERSION + " with " + VisionData.BYTE_SIZE + " bytes");
+                warned = true;
+                continue;
+            }
+            if (clock.isSynchronized())
+                data.millisec = ClockSync.toMillis(clock.toLocal(data.capture));
 
-        // Assume that the buffer now contains vision data
-        buffer.flip();
-        data.decode(buffer);
-        return data;
+            // Ping the camera that sent the data
+            final long period = clock.getSamples() < 4 ? INITIAL_PING_PERIOD : PING_PERIOD;
+            if (received - last_ping > period)
+            {
+                last_ping = received;
+                ping.clear();
+                ClockSync.encodePing(ping);
+                ping.flip();
+                udp.send(ping, sender);
+            }
+            return data;
+        }
+    }
+
+    /** @return Clock offset and round trip to camera */
+    public ClockSync getClock()
+    {
+        return clock;
+    }
+
+    /** Close the network connection */
+    public void close() throws Exception
+    {
+        udp.close();
     }
 
     /** Test/demo 
@@ -64,7 +120,9 @@ public class UDPClient
         while (true)
         {
             final VisionData data = client.read();
-            System.out.println((data.millisec - start) + " " + data);
+            System.out.println((data.millisec - start) + " " + data +
+                               ", age " + (System.currentTimeMillis() - data.millisec) + " ms, " +
+                               client.getClock());
         }    
     }
 }
@@ -10,13 +10,18 @@ import java.net.InetSocketAddress;
 import java.net.InterfaceAddress;
 import java.net.NetworkInterface;
 import java.net.StandardProtocolFamily;
+import java.net.SocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.DatagramChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-/** Send vision data updates via UDP */
+/** Send vision data updates via UDP
+ *
+ *  Also answers clock pings from clients, see {@link ClockSync}
+ */
 public class UDPServer
 {
     private final DatagramChannel udp;
@@ -31,11 +36,7 @@ public class UDPServer
 
     public UDPServer(final int port) throws Exception
     {
-        // Create a 'socket' that can use broadcasts
-        udp = DatagramChannel.open(StandardProtocolFamily.INET);
-        udp.configureBlocking(true);
-        udp.socket().setBroadcast(true);
-        udp.socket().setReuseAddress(true);
+        udp = open();
 
         // Find all network interfaces that support broadcast
         for (NetworkInterface iface : Collections.list(NetworkInterface.getNetworkInterfaces()))
@@ -49,10 +50,65 @@ public class UDPServer
             broadcasts.add(team_net);
 
         System.out.println("UDP Server broadcasting to " + broadcasts);
+        startClockReplies();
+    }
+
+    /** Create server that sends to specific addresses instead of broadcasting
+     *  @param targets Where to send
+     */
+    public UDPServer(final List<InetSocketAddress> targets) throws Exception
+    {
+        udp = open();
+        broadcasts.addAll(targets);
+        System.out.println("UDP Server sending to " + broadcasts);
+        startClockReplies();
+    }
+
+    /** @return 'socket' that can use broadcasts */
+    private static DatagramChannel open() throws Exception
+    {
+        final DatagramChannel udp = DatagramChannel.open(StandardProtocolFamily.INET);
+        udp.configureBlocking(true);
+        udp.socket().setBroadcast(true);
+        udp.socket().setReuseAddress(true);
+        // Bind now, not on first send, so clients can reply to the source address
+        udp.bind(null);
+        return udp;
+    }
+
+    /** Start thread that replies to clock pings received on the socket */
+    private void startClockReplies()
+    {
+        final Thread thread = new Thread(() ->
+        {
+            final ByteBuffer packet = ByteBuffer.allocate(ClockSync.BYTE_SIZE + 1);
+            try
+            {
+                while (true)
+                {
+                    packet.clear();
+                    final SocketAddress client = udp.receive(packet);
+                    final long received = ClockSync.now();
+                    packet.flip();
+                    if (ClockSync.reply(packet, received))
+                        udp.send(packet, client);
+                }
+            }
+            catch (ClosedChannelException ex)
+            {
+                // Server was closed
+            }
+            catch (Exception ex)
+            {
+                ex.printStackTrace();
+            }
+        }, "UDPClock");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /** @param data Data to send via UDP */
-    public void send(final VisionData data)
+    public synchronized void send(final VisionData data)
     {
         // Place number in byte buffer
         try
@@ -73,6 +129,12 @@ public class UDPServer
         }
     }
 
+    /** Close the network connection */
+    public void close() throws Exception
+    {
+        udp.close();
+    }
+
     /** Test/demo 
      *  @throws Exception
      */
@@ -88,6 +150,7 @@ public class UDPServer
             
             data.distance += 1;
             data.direction += 2;
+            data.capture = ClockSync.now();
             server.send(data);
         }   
     }
@@ -8,11 +8,27 @@ package frc.robot.camera;
 
 import java.nio.ByteBuffer;
 
-/** Data that we get from the camera */
+/** Data that we get from the camera
+ *
+ *  Packet:
+ *  <pre>
+ *  int   direction
+ *  int   distance
+ *  byte  version, {@link #VERSION}
+ *  byte  valid, 1 or 0
+ *  long  capture
+ *  </pre>
+ *
+ *  The first 8 bytes are the original packet,
+ *  so older clients that only read direction and distance still work.
+ */
 public class VisionData
 {
+    /** Version of the packet format */
+    public static final byte VERSION = 2;
+
     /** Size of data in buffer bytes */
-    public static final int BYTE_SIZE = Integer.BYTES*2;
+    public static final int BYTE_SIZE = Integer.BYTES*2 + 2 + Long.BYTES;
 
     /** UDP port used to communicate the vision data
      * 
@@ -26,7 +42,19 @@ public class VisionData
      */
     public int direction, distance;
 
-    /** Time in millisec when data was received (not used when sending) */
+    /** <code>false</code> when the camera is not delivering frames.
+     *  Direction and distance must then not be used, not even as "stay put".
+     */
+    public boolean valid = true;
+
+    /** Time in microseconds when the frame was captured, sender's {@link ClockSync#now()} */
+    public long capture;
+
+    /** Time in millisec when the frame was captured, receiver's System.currentTimeMillis() (not used when sending)
+     *
+     *  Set by the client from 'capture' once its {@link ClockSync} is synchronized.
+     *  Until then, it's the time when data was received.
+     */
     public long millisec;
 
     /** Clear the data
@@ -45,19 +73,33 @@ public class VisionData
     {
         buffer.putInt(direction);
         buffer.putInt(distance);
+        buffer.put(VERSION);
+        buffer.put((byte) (valid ? 1 : 0));
+        buffer.putLong(capture);
     }
 
-    /** @param buffer Buffer from which data is read */
-    public void decode(final ByteBuffer buffer)
+    /** @param buffer Buffer from which data is read
+     *  @return <code>true</code> if the data was decoded,
+     *          <code>false</code> if the packet has the wrong size or version
+     */
+    public boolean decode(final ByteBuffer buffer)
     {
+        if (buffer.remaining() < BYTE_SIZE  ||  buffer.get(buffer.position() + 2*Integer.BYTES) != VERSION)
+            return false;
         millisec = System.currentTimeMillis();
         direction = buffer.getInt();
         distance = buffer.getInt();
+        buffer.get();
+        valid = buffer.get() != 0;
+        capture = buffer.getLong();
+        return true;
     }
 
     @Override
     public String toString()
     {
+        if (! valid)
+            return "No data";
         return "Direction " + direction + ", Distance " + distance;
     }
 
@@ -70,6 +112,7 @@ public class VisionData
 
         data.direction = 42;
         data.distance = -20;
+        data.capture = ClockSync.now();
         data.encode(buffer);
         System.out.println("Encoded: " + data);
 
@@ -77,7 +120,6 @@ public class VisionData
         System.out.println("Cleared: " + data);
 
         buffer.flip();
-        data.decode(buffer);
-        System.out.println("Decoded: " + data);
+        System.out.println("Decoded: " + data.decode(buffer) + ", " + data);
     }
 }
\ No newline at end of file